@@ -0,0 +1,92 @@
+package com.exoquic.agent.debezium;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import io.debezium.engine.ChangeEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the checked-in corpus of Debezium JSON change events the benchmarks run over.
+ * <p>
+ * Each corpus is a resource {@code /corpus/<name>.jsonl} with one event per line, written as
+ * {@code {"key": ..., "value": ...}} in the layout of the PostgreSQL connector with schemas
+ * inline:
+ * <ul>
+ *   <li>{@code narrow}: inserts and updates of a four-column table</li>
+ *   <li>{@code wide}: inserts and updates of a 64-column table</li>
+ *   <li>{@code composite}: inserts and updates of a table with a three-column primary key</li>
+ *   <li>{@code large}: rows with about 16 KB of text and a 4 KB jsonb column</li>
+ *   <li>{@code deletes}: deletes with the full before image, with single and composite keys</li>
+ * </ul>
+ */
+final class Corpus {
+    private Corpus() {
+    }
+
+    /**
+     * Loads a corpus as captured events, numbered in file order.
+     *
+     * @param name Corpus name
+     * @return Captured events
+     */
+    static List<CapturedEvent<ChangeEvent<String, String>>> load(String name) {
+        String resource = "/corpus/" + name + ".jsonl";
+        InputStream in = Corpus.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+
+        List<CapturedEvent<ChangeEvent<String, String>>> events = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject event = JSON.parseObject(line);
+                String key = event.get("key") == null ? null : JSON.toJSONString(event.get("key"));
+                String value = JSON.toJSONString(event.get("value"));
+                events.add(new CapturedEvent<>(events.size(), new JsonChangeEvent(key, value), System.nanoTime()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading corpus " + resource, e);
+        }
+        return events;
+    }
+
+    /**
+     * A change event as the JSON output format of the embedded engine hands it over.
+     */
+    private static final class JsonChangeEvent implements ChangeEvent<String, String> {
+        private final String key;
+        private final String value;
+
+        private JsonChangeEvent(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public String value() {
+            return value;
+        }
+
+        @Override
+        public String destination() {
+            return "benchmark";
+        }
+    }
+}
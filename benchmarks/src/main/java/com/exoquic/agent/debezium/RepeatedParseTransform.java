@@ -0,0 +1,82 @@
+package com.exoquic.agent.debezium;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.exoquic.agent.model.ChangeEventType;
+import io.debezium.engine.ChangeEvent;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The transform path as it was before change events were parsed once into a {@link ChangeRecord}:
+ * the filter, the topic, the key and the transform each parse the event JSON on their own.
+ * <p>
+ * Kept as a baseline for {@link TransformBenchmark#repeatedParse}, without the logging of the
+ * original. Each step returns the same result as the current processor for the corpus events.
+ */
+final class RepeatedParseTransform {
+    private RepeatedParseTransform() {
+    }
+
+    static boolean isValidEvent(ChangeEvent<String, String> event) {
+        JSONObject value = JSON.parseObject(event.value());
+        if (value.containsKey("schema") && value.containsKey("payload")) {
+            JSONObject payload = value.getJSONObject("payload");
+            return !payload.containsKey("ddl") && !payload.isEmpty();
+        }
+        return false;
+    }
+
+    static String getTopicName(ChangeEvent<String, String> event) {
+        JSONObject source = JSON.parseObject(event.value()).getJSONObject("payload").getJSONObject("source");
+        return String.format("%s.%s.%s", source.getString("db"), source.getString("schema"), source.getString("table"));
+    }
+
+    static String extractPrimaryKey(ChangeEvent<String, String> event) {
+        JSONObject payload = JSON.parseObject(event.key()).getJSONObject("payload");
+        if (payload.size() == 1) {
+            return String.valueOf(payload.values().iterator().next());
+        }
+        Map<String, Object> sorted = new TreeMap<>(payload);
+        StringBuilder sb = new StringBuilder();
+        for (Object value : sorted.values()) {
+            if (sb.length() > 0) {
+                sb.append(":");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    static String transformEvent(ChangeEvent<String, String> event) {
+        JSONObject payload = JSON.parseObject(event.value()).getJSONObject("payload");
+        ChangeEventType type;
+        JSONObject data;
+        switch (payload.getString("op")) {
+            case "c" -> {
+                type = ChangeEventType.CREATED;
+                data = payload.getJSONObject("after");
+            }
+            case "u" -> {
+                type = ChangeEventType.UPDATED;
+                data = payload.getJSONObject("after");
+            }
+            case "d" -> {
+                type = ChangeEventType.REMOVED;
+                data = payload.getJSONObject("before");
+            }
+            default -> {
+                return null;
+            }
+        }
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+
+        JSONObject exoquicPayload = new JSONObject();
+        exoquicPayload.put("type", type.getValue());
+        exoquicPayload.put("data", data);
+        return JSON.toJSONString(exoquicPayload);
+    }
+}
@@ -0,0 +1,131 @@
+package com.exoquic.agent.debezium;
+
+import com.exoquic.agent.config.AgentConfig;
+import com.exoquic.agent.http.ReactiveHttpClient;
+import com.exoquic.agent.metrics.FreshnessTracker;
+import com.exoquic.agent.metrics.MetricsRegistry;
+import com.exoquic.agent.metrics.SnapshotProgress;
+import com.exoquic.agent.model.ChangeRecord;
+import com.exoquic.agent.model.ExoquicEvent;
+import io.debezium.engine.ChangeEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the steps {@link ReactiveEventProcessor} takes from a Debezium JSON change event to an
+ * {@link ExoquicEvent}, one event per operation, so throughput is events per second and the
+ * {@code gc.alloc.rate.norm} of {@code -prof gc} is bytes allocated per event.
+ * <p>
+ * Operations cycle through the events of a {@link Corpus}. The step benchmarks ({@code filter},
+ * {@code topic}, {@code key}, {@code transform}) run over records parsed in setup; {@code pipeline}
+ * runs every step from the raw event, and {@code repeatedParse} runs the same steps the way they
+ * were done before events were parsed once, as a baseline for {@code pipeline}.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar TransformBenchmark -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformBenchmark {
+    @Param({"narrow", "wide", "composite", "large", "deletes"})
+    public String corpus;
+
+    private ReactiveEventProcessor processor;
+    private CapturedEvent<ChangeEvent<String, String>>[] events;
+    private ChangeRecord[] records;
+    private int mask;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        AgentConfig config = new AgentConfig(Map.of(
+                "EXOQUIC_ENV", "dev",
+                "EXOQUIC_API_KEY", "benchmark",
+                "PGHOST", "localhost",
+                "PGDATABASE", "shop",
+                "PGUSER", "benchmark",
+                "PGPASSWORD", "benchmark"));
+        MetricsRegistry metrics = new MetricsRegistry();
+        processor = new ReactiveEventProcessor(config, new ReactiveHttpClient(config, metrics),
+                new AckTracker<>(1024, (event, sequence) -> { }), null, null, metrics,
+                new FreshnessTracker(metrics, config.getFreshnessWindowMs()), new SnapshotProgress(metrics));
+
+        List<CapturedEvent<ChangeEvent<String, String>>> loaded = Corpus.load(corpus);
+        if (Integer.bitCount(loaded.size()) != 1) {
+            throw new IllegalStateException("Corpus " + corpus + " must hold a power of two events, not " + loaded.size());
+        }
+        events = loaded.toArray(new CapturedEvent[0]);
+        records = new ChangeRecord[events.length];
+        for (int i = 0; i < events.length; i++) {
+            records[i] = processor.parseEvent(events[i]);
+            if (records[i] == null || !processor.isValidEvent(records[i]) || processor.transformEvent(records[i]) == null) {
+                throw new IllegalStateException("Event " + i + " of corpus " + corpus + " is not transformed");
+            }
+        }
+        mask = events.length - 1;
+    }
+
+    private int nextIndex() {
+        return next++ & mask;
+    }
+
+    @Benchmark
+    public ChangeRecord parse() {
+        return processor.parseEvent(events[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean filter() {
+        return processor.isValidEvent(records[nextIndex()]);
+    }
+
+    @Benchmark
+    public String topic() {
+        return processor.getTopicName(records[nextIndex()]);
+    }
+
+    @Benchmark
+    public String key() {
+        return processor.extractPrimaryKey(records[nextIndex()]);
+    }
+
+    @Benchmark
+    public ExoquicEvent transform() {
+        return processor.transformEvent(records[nextIndex()]);
+    }
+
+    @Benchmark
+    public ExoquicEvent pipeline() {
+        ChangeRecord record = processor.parseEvent(events[nextIndex()]);
+        return processor.isValidEvent(record) ? processor.transformEvent(record) : null;
+    }
+
+    @Benchmark
+    public void repeatedParse(Blackhole blackhole) {
+        ChangeEvent<String, String> event = events[nextIndex()].getEvent();
+        if (RepeatedParseTransform.isValidEvent(event)) {
+            blackhole.consume(RepeatedParseTransform.transformEvent(event));
+            blackhole.consume(RepeatedParseTransform.getTopicName(event));
+            blackhole.consume(RepeatedParseTransform.extractPrimaryKey(event));
+        }
+    }
+}
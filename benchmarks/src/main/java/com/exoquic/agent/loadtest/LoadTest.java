@@ -0,0 +1,186 @@
+package com.exoquic.agent.loadtest;
+
+import com.exoquic.agent.ExoquicAgent;
+import com.exoquic.agent.config.AgentConfig;
+import com.exoquic.agent.debezium.AckTracker;
+import com.exoquic.agent.metrics.FreshnessTracker;
+import com.exoquic.agent.metrics.FreshnessTracker.Stage;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the whole agent, as wired by {@link ExoquicAgent}, against synthetic change events and a
+ * local stand-in for Exoquic, on one machine without a database or network.
+ * <p>
+ * Events are generated at a target rate by a {@link SyntheticEventSource} and published through
+ * the capture engine, and the agent sends them to a {@link StubExoquicServer} with the configured
+ * latency, error rate and throttling. When the generator stops, the test waits for the pipeline
+ * to drain and reports the sustained event rate, the requests the stub received, latency
+ * percentiles from the agent's freshness tracking and heap usage.
+ * <p>
+ * Options are given as {@code --name value}:
+ * <ul>
+ *   <li>{@code --rate}: events per second, 0 for as fast as possible (default: 20000)</li>
+ *   <li>{@code --duration-s}: how long to generate events (default: 60)</li>
+ *   <li>{@code --batch}: events per handover, like the connector's batches (default: 64)</li>
+ *   <li>{@code --keys}: distinct row keys (default: 10000)</li>
+ *   <li>{@code --row-bytes}: size of each row's text column (default: 200)</li>
+ *   <li>{@code --latency-ms} and {@code --latency-jitter-ms}: stub response time (default: 5 and 5)</li>
+ *   <li>{@code --error-rate}: share of requests the stub fails with 503 (default: 0)</li>
+ *   <li>{@code --throttle-rps}: requests per second above which the stub answers 429 (default: 0, no limit)</li>
+ * </ul>
+ * The agent itself is configured through the usual environment variables; those the test needs
+ * get defaults, and {@code EXOQUIC_BASE_URL} always points at the stub.
+ * <p>
+ * Run with {@code java -cp benchmarks/target/benchmarks.jar com.exoquic.agent.loadtest.LoadTest --rate 50000}.
+ */
+public class LoadTest {
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "20000"));
+        long durationMs = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duration-s", "60")));
+        int batch = Integer.parseInt(options.getOrDefault("batch", "64"));
+        int keys = Integer.parseInt(options.getOrDefault("keys", "10000"));
+        int rowBytes = Integer.parseInt(options.getOrDefault("row-bytes", "200"));
+
+        StubExoquicServer stub = new StubExoquicServer(
+                Long.parseLong(options.getOrDefault("latency-ms", "5")),
+                Long.parseLong(options.getOrDefault("latency-jitter-ms", "5")),
+                Double.parseDouble(options.getOrDefault("error-rate", "0")),
+                Integer.parseInt(options.getOrDefault("throttle-rps", "0")));
+        int port = stub.start();
+
+        Path workDir = Files.createTempDirectory("exoquic-loadtest");
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.putIfAbsent("EXOQUIC_ENV", "dev");
+        env.putIfAbsent("EXOQUIC_API_KEY", "loadtest");
+        env.putIfAbsent("PGHOST", "localhost");
+        env.putIfAbsent("PGDATABASE", "loadtest");
+        env.putIfAbsent("PGUSER", "loadtest");
+        env.putIfAbsent("PGPASSWORD", "loadtest");
+        env.putIfAbsent("METRICS_ENABLED", "false");
+        env.put("SPILL_DIR", workDir.resolve("spill").toString());
+        env.put("DEAD_LETTER_DIR", workDir.resolve("dead-letter").toString());
+        // One window covering the whole run, read once at the end
+        env.put("FRESHNESS_WINDOW_MS", String.valueOf(TimeUnit.DAYS.toMillis(1)));
+        env.put("EXOQUIC_BASE_URL", "http://127.0.0.1:" + port + "/");
+
+        SyntheticEventSource source = new SyntheticEventSource(rate, durationMs, batch, keys, rowBytes);
+        ExoquicAgent agent = new ExoquicAgent(new AgentConfig(env), source);
+        AckTracker<?> ackTracker = agent.getDebeziumEngine().getAckTracker();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        System.out.printf("Generating %s events/s for %d s against the stub on port %d%n",
+                rate > 0 ? rate : "unlimited", TimeUnit.MILLISECONDS.toSeconds(durationMs), port);
+        agent.start();
+        long start = System.nanoTime();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMs();
+        long peakHeap = 0;
+        long lastAcked = 0;
+        long lastReport = start;
+        long drainDeadline = Long.MAX_VALUE;
+        long end;
+        while (true) {
+            Thread.sleep(1000);
+            long now = System.nanoTime();
+            long acked = ackTracker.getCommittedSequence();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            peakHeap = Math.max(peakHeap, heap);
+            System.out.printf("%5d s  generated %,d  acked %,d  %,.0f events/s  requests %,d  heap %,d MB%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), source.getGenerated(), acked,
+                    (acked - lastAcked) * 1e9 / (now - lastReport), stub.getAccepted() + stub.getFailed() + stub.getThrottled(),
+                    heap >> 20);
+            lastAcked = acked;
+            lastReport = now;
+
+            if (source.isExhausted()) {
+                if (acked >= source.getGenerated()) {
+                    end = now;
+                    break;
+                }
+                if (drainDeadline == Long.MAX_VALUE) {
+                    drainDeadline = now + DRAIN_TIMEOUT_NANOS;
+                } else if (now > drainDeadline) {
+                    System.out.printf("Pipeline did not drain within %d s%n", TimeUnit.NANOSECONDS.toSeconds(DRAIN_TIMEOUT_NANOS));
+                    end = now;
+                    break;
+                }
+            }
+        }
+
+        long acked = ackTracker.getCommittedSequence();
+        double seconds = (end - start) / 1e9;
+        System.out.println();
+        System.out.printf("Events generated      %,d%n", source.getGenerated());
+        System.out.printf("Events acknowledged   %,d%n", acked);
+        System.out.printf("Sustained rate        %,.0f events/s over %.1f s%n", acked / seconds, seconds);
+        System.out.printf("Requests              %,d accepted, %,d failed, %,d throttled, %,.1f MB received%n",
+                stub.getAccepted(), stub.getFailed(), stub.getThrottled(), stub.getReceivedBytes() / 1048576.0);
+        FreshnessTracker freshness = agent.getFreshness();
+        for (Stage stage : Stage.values()) {
+            StringBuilder line = new StringBuilder(String.format("Latency %-13s", stage.getLabel()));
+            for (double quantile : QUANTILES) {
+                line.append(String.format("  p%s %8.2f ms", String.valueOf(quantile * 100).replace(".0", ""),
+                        freshness.getLatencySeconds(SyntheticEventSource.TOPIC, stage, quantile) * 1000));
+            }
+            System.out.println(line);
+        }
+        System.out.printf("Heap                  peak %,d MB used, %,d MB committed, %,d GCs taking %,d ms%n",
+                peakHeap >> 20, memory.getHeapMemoryUsage().getCommitted() >> 20,
+                gcCount() - gcCountBefore, gcTimeMs() - gcTimeBefore);
+
+        agent.stop();
+        stub.stop();
+        deleteRecursively(workDir);
+        System.exit(0);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMs() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.exoquic.agent.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the Exoquic Kafka REST bridge that accepts {@code POST /topics/{topic}}
+ * without keeping anything.
+ * <p>
+ * Every request is answered after a configurable latency. A configurable share of requests fails
+ * with 503, and above a configurable request rate requests are throttled with 429 and a
+ * {@code Retry-After} of one second. Accepted requests get an empty list of offsets, which the
+ * agent treats as every record written.
+ */
+public class StubExoquicServer {
+    private static final String ACCEPTED = "{\"offsets\":[]}";
+
+    private final long latencyMs;
+    private final long latencyJitterMs;
+    private final double errorRate;
+    private final int throttleRequestsPerSecond;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final AtomicLong throttleWindow = new AtomicLong();
+    private final AtomicLong throttleCount = new AtomicLong();
+    private DisposableServer server;
+
+    /**
+     * Creates a new StubExoquicServer.
+     *
+     * @param latencyMs Minimum time before answering a request, in milliseconds
+     * @param latencyJitterMs Maximum random time added to the latency, in milliseconds
+     * @param errorRate Share of requests between 0 and 1 that fail with 503
+     * @param throttleRequestsPerSecond Requests per second above which requests are throttled, or 0 for no limit
+     */
+    public StubExoquicServer(long latencyMs, long latencyJitterMs, double errorRate, int throttleRequestsPerSecond) {
+        this.latencyMs = latencyMs;
+        this.latencyJitterMs = latencyJitterMs;
+        this.errorRate = errorRate;
+        this.throttleRequestsPerSecond = throttleRequestsPerSecond;
+    }
+
+    /**
+     * Starts listening on an ephemeral port of the loopback address.
+     *
+     * @return Bound port
+     */
+    public int start() {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.post("/topics/{topic}", this::handle))
+                .bindNow();
+        return server.port();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive()
+                .doOnNext(buf -> receivedBytes.add(buf.readableBytes()))
+                .then(Mono.defer(() -> {
+                    if (isThrottled()) {
+                        throttled.increment();
+                        return response.status(HttpResponseStatus.TOO_MANY_REQUESTS)
+                                .header(HttpHeaderNames.RETRY_AFTER, "1")
+                                .send();
+                    }
+
+                    long delay = latencyMs + (latencyJitterMs > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMs + 1) : 0);
+                    boolean fail = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+                    return Mono.delay(Duration.ofMillis(delay)).then(Mono.defer(() -> {
+                        if (fail) {
+                            failed.increment();
+                            return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).send();
+                        }
+                        accepted.increment();
+                        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                                .sendString(Mono.just(ACCEPTED))
+                                .then();
+                    }));
+                }));
+    }
+
+    /**
+     * Counts a request against the current one-second window.
+     */
+    private boolean isThrottled() {
+        if (throttleRequestsPerSecond <= 0) {
+            return false;
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        long window = throttleWindow.get();
+        if (window != second && throttleWindow.compareAndSet(window, second)) {
+            throttleCount.set(0);
+        }
+        return throttleCount.incrementAndGet() > throttleRequestsPerSecond;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    /**
+     * Stops listening.
+     */
+    public void stop() {
+        if (server != null) {
+            server.disposeNow();
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.exoquic.agent.loadtest;
+
+import com.exoquic.agent.debezium.ChangeEventSource;
+import io.debezium.engine.ChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates Debezium JSON change events for a single table at a target rate, in the layout of
+ * the PostgreSQL connector with schemas inline.
+ * <p>
+ * Rows are keyed by an id that cycles through a fixed number of keys: the first event of a key
+ * is an insert, later ones are updates. The commit time in the source block is the time the
+ * event was generated, so the agent's freshness metrics measure the pipeline alone.
+ */
+public class SyntheticEventSource implements ChangeEventSource<ChangeEvent<String, String>> {
+    /** Database, schema and table the events claim to come from. */
+    public static final String TOPIC = "loadtest.public.events";
+
+    private static final String KEY_SCHEMA = "{\"type\":\"struct\",\"fields\":[{\"type\":\"int64\",\"optional\":false,"
+            + "\"field\":\"id\"}],\"optional\":false,\"name\":\"loadtest.public.events.Key\"}";
+    private static final String ROW_FIELDS = "[{\"type\":\"int64\",\"optional\":false,\"field\":\"id\"},"
+            + "{\"type\":\"string\",\"optional\":true,\"field\":\"account\"},"
+            + "{\"type\":\"double\",\"optional\":true,\"field\":\"amount\"},"
+            + "{\"type\":\"string\",\"optional\":true,\"field\":\"note\"},"
+            + "{\"type\":\"int64\",\"optional\":true,\"name\":\"io.debezium.time.MicroTimestamp\",\"version\":1,\"field\":\"updated_at\"}]";
+    private static final String VALUE_SCHEMA = "{\"type\":\"struct\",\"fields\":["
+            + "{\"type\":\"struct\",\"fields\":" + ROW_FIELDS + ",\"optional\":true,\"name\":\"loadtest.public.events.Value\",\"field\":\"before\"},"
+            + "{\"type\":\"struct\",\"fields\":" + ROW_FIELDS + ",\"optional\":true,\"name\":\"loadtest.public.events.Value\",\"field\":\"after\"},"
+            + "{\"type\":\"struct\",\"fields\":[{\"type\":\"string\",\"optional\":false,\"field\":\"version\"},"
+            + "{\"type\":\"string\",\"optional\":false,\"field\":\"connector\"},{\"type\":\"string\",\"optional\":false,\"field\":\"name\"},"
+            + "{\"type\":\"int64\",\"optional\":false,\"field\":\"ts_ms\"},{\"type\":\"string\",\"optional\":false,\"field\":\"db\"},"
+            + "{\"type\":\"string\",\"optional\":false,\"field\":\"schema\"},{\"type\":\"string\",\"optional\":false,\"field\":\"table\"},"
+            + "{\"type\":\"int64\",\"optional\":true,\"field\":\"txId\"},{\"type\":\"int64\",\"optional\":true,\"field\":\"lsn\"}],"
+            + "\"optional\":false,\"name\":\"io.debezium.connector.postgresql.Source\",\"field\":\"source\"},"
+            + "{\"type\":\"string\",\"optional\":false,\"field\":\"op\"},{\"type\":\"int64\",\"optional\":true,\"field\":\"ts_ms\"}],"
+            + "\"optional\":false,\"name\":\"loadtest.public.events.Envelope\",\"version\":1}";
+
+    private final int eventsPerSecond;
+    private final long durationNanos;
+    private final int batchSize;
+    private final int keys;
+    private final String note;
+    private volatile boolean closed;
+    private volatile long generated;
+    private volatile boolean exhausted;
+
+    /**
+     * Creates a new SyntheticEventSource.
+     *
+     * @param eventsPerSecond Target rate, or 0 to generate as fast as the pipeline takes events
+     * @param durationMs How long to generate events, in milliseconds
+     * @param batchSize Events handed over at a time, like the connector's batches
+     * @param keys Number of distinct row keys
+     * @param rowBytes Approximate size of a row's text column, in bytes
+     */
+    public SyntheticEventSource(int eventsPerSecond, long durationMs, int batchSize, int keys, int rowBytes) {
+        this.eventsPerSecond = eventsPerSecond;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        this.batchSize = batchSize;
+        this.keys = keys;
+        this.note = "x".repeat(rowBytes);
+    }
+
+    @Override
+    public void run(BatchConsumer<ChangeEvent<String, String>> consumer) throws InterruptedException {
+        long start = System.nanoTime();
+        long count = 0;
+        while (!closed && System.nanoTime() - start < durationNanos) {
+            List<ChangeEvent<String, String>> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(event(count + i));
+            }
+            consumer.accept(batch);
+            count += batchSize;
+            generated = count;
+
+            if (eventsPerSecond > 0) {
+                long due = start + count * TimeUnit.SECONDS.toNanos(1) / eventsPerSecond;
+                long wait;
+                while (!closed && (wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }
+        exhausted = true;
+    }
+
+    private ChangeEvent<String, String> event(long sequence) {
+        long id = sequence % keys;
+        long now = System.currentTimeMillis();
+        String key = "{\"schema\":" + KEY_SCHEMA + ",\"payload\":{\"id\":" + id + "}}";
+        String value = new StringBuilder(VALUE_SCHEMA.length() + note.length() + 400)
+                .append("{\"schema\":").append(VALUE_SCHEMA)
+                .append(",\"payload\":{\"before\":null,\"after\":{\"id\":").append(id)
+                .append(",\"account\":\"acct-").append(id % 1000)
+                .append("\",\"amount\":").append(ThreadLocalRandom.current().nextInt(100000) / 100.0)
+                .append(",\"note\":\"").append(note)
+                .append("\",\"updated_at\":").append(now * 1000)
+                .append("},\"source\":{\"version\":\"2.3.0.Final\",\"connector\":\"postgresql\",\"name\":\"loadtest\",\"ts_ms\":").append(now)
+                .append(",\"db\":\"loadtest\",\"schema\":\"public\",\"table\":\"events\",\"txId\":").append(sequence)
+                .append(",\"lsn\":").append(sequence * 64)
+                .append("},\"op\":\"").append(sequence < keys ? 'c' : 'u')
+                .append("\",\"ts_ms\":").append(now)
+                .append("}}")
+                .toString();
+        return new SyntheticChangeEvent(key, value);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Gets the number of events handed over so far.
+     *
+     * @return Generated events
+     */
+    public long getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Checks if the source has handed over its last event.
+     *
+     * @return true once the duration has passed or the source was closed
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    private static final class SyntheticChangeEvent implements ChangeEvent<String, String> {
+        private final String key;
+        private final String value;
+
+        private SyntheticChangeEvent(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public String value() {
+            return value;
+        }
+
+        @Override
+        public String destination() {
+            return TOPIC;
+        }
+    }
+}
@@ -1,37 +1,108 @@
 package com.exoquic.agent;
 
 import com.exoquic.agent.config.AgentConfig;
+import com.exoquic.agent.database.PostgresConfigValidator;
+import com.exoquic.agent.debezium.AckTracker;
+import com.exoquic.agent.debezium.ChangeEventSource;
+import com.exoquic.agent.debezium.EventHandoff;
 import com.exoquic.agent.debezium.ReactiveDebeziumEngine;
 import com.exoquic.agent.debezium.ReactiveEventProcessor;
+import com.exoquic.agent.debezium.RecordingSource;
+import com.exoquic.agent.debezium.SnapshotSignals;
+import com.exoquic.agent.http.DeadLetterQueue;
 import com.exoquic.agent.http.ReactiveHttpClient;
+import com.exoquic.agent.http.SpillQueue;
+import com.exoquic.agent.metrics.FreshnessTracker;
+import com.exoquic.agent.metrics.MetricsRegistry;
+import com.exoquic.agent.metrics.MetricsServer;
+import com.exoquic.agent.metrics.SnapshotProgress;
+import com.exoquic.agent.storage.SegmentLog;
+import io.debezium.engine.ChangeEvent;
+import io.debezium.engine.RecordChangeEvent;
+import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ExoquicAgent {
     private static final Logger logger = LogManager.getLogger(ExoquicAgent.class);
 
-    private final ReactiveDebeziumEngine debeziumEngine;
+    private final ReactiveDebeziumEngine<?> debeziumEngine;
     private final Disposable subscription;
+    private final SpillQueue spillQueue;
+    private final DeadLetterQueue deadLetters;
+    private final MetricsServer metricsServer;
+    private final FreshnessTracker freshness;
+    private final SnapshotProgress snapshotProgress;
+    private final boolean capturing;
+    private final AgentConfig config;
+    private final AtomicBoolean stopped = new AtomicBoolean();
     
     /**
      * Creates a new ExoquicAgent using environment variables for configuration.
      */
     public ExoquicAgent() {
-        logger.info("Loading configuration from environment variables");
-        AgentConfig config = new AgentConfig();
+        this(loadConfig(), null);
+    }
+    
+    /**
+     * Creates a new ExoquicAgent. With a source, the agent publishes the source's JSON change
+     * events instead of capturing them from the database, which runs the whole pipeline without
+     * PostgreSQL, for example under a load generator. Without a source, a configured replay file
+     * is used as the source.
+     * 
+     * @param config Agent configuration
+     * @param source Source of change events to use instead of the database, or null
+     */
+    public ExoquicAgent(AgentConfig config, ChangeEventSource<ChangeEvent<String, String>> source) {
+        MetricsRegistry metrics = new MetricsRegistry();
+        this.config = config;
+        this.freshness = new FreshnessTracker(metrics, config.getFreshnessWindowMs());
+        this.snapshotProgress = new SnapshotProgress(metrics);
+        ReactiveHttpClient httpClient = new ReactiveHttpClient(config, metrics);
+        this.deadLetters = createDeadLetterQueue(config);
+        this.spillQueue = createSpillQueue(config, httpClient, deadLetters);
+        if (source == null && config.getReplayFile() != null) {
+            source = new RecordingSource(Paths.get(config.getReplayFile()), config.getReplaySpeed(), config.getBatchSize());
+        }
+        this.capturing = source == null;
         
-        ReactiveHttpClient httpClient = new ReactiveHttpClient(config);
-        ReactiveEventProcessor eventProcessor = new ReactiveEventProcessor(config, httpClient);
-        this.debeziumEngine = new ReactiveDebeziumEngine(config);
+        // Setup ChangeEvent handler for the configured capture format
+        Flux<Void> pipeline;
+        if (source == null && "connect".equals(config.getCaptureFormat())) {
+            logger.info("Capturing change events as Kafka Connect source records");
+            ReactiveDebeziumEngine<RecordChangeEvent<SourceRecord>> engine = ReactiveDebeziumEngine.connect(config);
+            ReactiveEventProcessor eventProcessor = new ReactiveEventProcessor(config, httpClient, engine.getAckTracker(), spillQueue, deadLetters, metrics, freshness, snapshotProgress);
+            pipeline = engine.getEventFlux()
+                .transform(eventProcessor::processConnectEvents);
+            this.debeziumEngine = engine;
+        } else {
+            ReactiveDebeziumEngine<ChangeEvent<String, String>> engine = source == null
+                ? ReactiveDebeziumEngine.json(config) : ReactiveDebeziumEngine.fromSource(config, source);
+            ReactiveEventProcessor eventProcessor = new ReactiveEventProcessor(config, httpClient, engine.getAckTracker(), spillQueue, deadLetters, metrics, freshness, snapshotProgress);
+            pipeline = engine.getEventFlux()
+                .transform(eventProcessor::processEvents);
+            this.debeziumEngine = engine;
+        }
         
-        // Setup ChangeEvent handler
-        this.subscription = debeziumEngine.getEventFlux()
-            .doOnNext(event -> logger.debug("Received event in pipeline: {}", 
-                event.value() != null ? event.value().substring(0, Math.min(100, event.value().length())) + "..." : "null"))
-            .transform(eventProcessor::processEvents)
+        registerGauges(metrics);
+        if (!config.isMetricsEnabled()) {
+            this.metricsServer = null;
+        } else if (config.isAdminApiEnabled()) {
+            SnapshotSignals signals = new SnapshotSignals(config);
+            this.metricsServer = new MetricsServer(config.getMetricsHost(), config.getMetricsPort(), metrics, signals::addRoutes);
+        } else {
+            this.metricsServer = new MetricsServer(config.getMetricsHost(), config.getMetricsPort(), metrics);
+        }
+        
+        this.subscription = pipeline
             .subscribe(
                 v -> {}, // Events are handled in the processor
                 error -> logger.error("Error in event processing pipeline", error),
@@ -41,6 +112,109 @@ public class ExoquicAgent {
         logger.info("ExoquicAgent initialized successfully");
     }
     
+    private static AgentConfig loadConfig() {
+        logger.info("Loading configuration from environment variables");
+        return new AgentConfig();
+    }
+    
+    /**
+     * Gets the capture engine, for inspecting its handoff and acknowledgement state.
+     * 
+     * @return Capture engine
+     */
+    public ReactiveDebeziumEngine<?> getDebeziumEngine() {
+        return debeziumEngine;
+    }
+    
+    /**
+     * Gets the tracker of the latency from commit to acknowledgement.
+     * 
+     * @return Freshness tracker
+     */
+    public FreshnessTracker getFreshness() {
+        return freshness;
+    }
+    
+    /**
+     * Registers gauges for the state of the capture engine, the spill queue and the dead-letter queue.
+     * 
+     * @param metrics Registry to register the gauges with
+     */
+    private void registerGauges(MetricsRegistry metrics) {
+        EventHandoff<?> handoff = debeziumEngine.getHandoff();
+        AckTracker<?> ackTracker = debeziumEngine.getAckTracker();
+        metrics.gauge("exoquic_handoff_queue_depth", "Events handed over by Debezium waiting for the pipeline",
+            handoff::getOccupancy);
+        metrics.gauge("exoquic_handoff_queue_capacity", "Events the handoff ring can hold", handoff::getCapacity);
+        metrics.counter("exoquic_handoff_blocked_seconds_total", "Time Debezium spent waiting for room in the handoff ring",
+            () -> handoff.getBlockedNanos() / 1e9);
+        metrics.gauge("exoquic_unacked_events", "Events captured but not yet delivered, spilled or skipped",
+            ackTracker::getPendingCount);
+        metrics.gauge("exoquic_committed_sequence", "Capture sequence number up to which offsets are committed",
+            ackTracker::getCommittedSequence);
+        metrics.gauge("exoquic_committed_lsn", "Highest LSN among the events whose offsets are committed",
+            ackTracker::getCommittedLsn);
+        if (spillQueue != null) {
+            metrics.gauge("exoquic_spill_pending_requests", "Requests spilled to disk waiting to be delivered",
+                spillQueue::getPendingRequests);
+            metrics.gauge("exoquic_spill_pending_bytes", "Size of the requests spilled to disk", spillQueue::getPendingBytes);
+        }
+        if (deadLetters != null) {
+            metrics.gauge("exoquic_dead_letter_pending_entries", "Dead-lettered entries waiting to be replayed",
+                deadLetters::getPendingEntries);
+            metrics.counter("exoquic_dead_letter_stored_total", "Entries written to the dead-letter queue", deadLetters::getStored);
+            metrics.counter("exoquic_dead_letter_dropped_total", "Entries that could not be written to the dead-letter queue",
+                deadLetters::getDropped);
+        }
+    }
+    
+    /**
+     * Opens the spill queue for requests that cannot be delivered, if spilling is enabled.
+     * 
+     * @param config Agent configuration
+     * @param httpClient HTTP client used to deliver spilled requests
+     * @param deadLetters Queue for spilled requests that are rejected for good, or null
+     * @return Spill queue, or null if spilling is disabled
+     * @throws RuntimeException if the spill directory cannot be opened
+     */
+    private static SpillQueue createSpillQueue(AgentConfig config, ReactiveHttpClient httpClient,
+                                               DeadLetterQueue deadLetters) {
+        if (!config.isSpillEnabled()) {
+            logger.info("Spilling undeliverable requests to disk is disabled");
+            return null;
+        }
+        
+        try {
+            SegmentLog log = new SegmentLog(Paths.get(config.getSpillDirectory()),
+                config.getSpillSegmentBytes(), config.getSpillMaxBytes());
+            return new SpillQueue(log, httpClient, Duration.ofMillis(config.getInitialRetryDelayMs()), deadLetters,
+                config.getDispatchLanes(), config.getProduceBatchMaxRecords(), config.getProduceBatchMaxBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open spill directory " + config.getSpillDirectory(), e);
+        }
+    }
+    
+    /**
+     * Opens the dead-letter queue for events that Exoquic rejects for good, if it is enabled.
+     * 
+     * @param config Agent configuration
+     * @return Dead-letter queue, or null if dead-lettering is disabled
+     * @throws RuntimeException if the dead-letter directory cannot be opened
+     */
+    private static DeadLetterQueue createDeadLetterQueue(AgentConfig config) {
+        if (!config.isDeadLetterEnabled()) {
+            logger.info("Dead-lettering rejected events is disabled");
+            return null;
+        }
+        
+        try {
+            return new DeadLetterQueue(Paths.get(config.getDeadLetterDirectory()), config.getDeadLetterSegmentBytes(),
+                config.getDeadLetterMaxBytes(), config.getDeadLetterQueueCapacity());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open dead-letter directory " + config.getDeadLetterDirectory(), e);
+        }
+    }
+    
     /**
      * Starts the agent.
      * 
@@ -52,8 +226,18 @@ public class ExoquicAgent {
         Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
         
         try {
+            if (metricsServer != null) {
+                metricsServer.start();
+            }
+            if (spillQueue != null) {
+                spillQueue.start();
+            }
+            
             logger.info("Initializing Debezium engine");
             debeziumEngine.start();
+            if (capturing && !"never".equals(config.getSnapshotMode())) {
+                snapshotProgress.setEstimates(new PostgresConfigValidator(config).estimateTableRows());
+            }
             
             try {
                 Thread.sleep(1000);
@@ -73,25 +257,72 @@ public class ExoquicAgent {
      * Stops the agent.
      */
     public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         logger.info("Stopping Exoquic PostgreSQL Agent");
         
-        // Dispose subscription
+        // Stop capturing first, so that the pipeline can drain the events in flight before the
+        // subscription is disposed
+        debeziumEngine.stop();
         if (subscription != null && !subscription.isDisposed()) {
             subscription.dispose();
         }
         
         // Stop components
-        debeziumEngine.stop();
+        if (spillQueue != null) {
+            spillQueue.close();
+        }
+        if (deadLetters != null) {
+            deadLetters.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
         
         logger.info("Exoquic PostgreSQL Agent stopped successfully");
     }
     
     /**
-     * Main method.
+     * Sends the events in the dead-letter queue to Exoquic again, at the configured rate.
+     * The agent must not be running on the same dead-letter directory.
+     * 
+     * @return true if the replay ran to the end
+     */
+    private static boolean replayDeadLetters() {
+        AgentConfig config = new AgentConfig();
+        ReactiveHttpClient httpClient = new ReactiveHttpClient(config, new MetricsRegistry());
+        DeadLetterQueue deadLetters;
+        try {
+            deadLetters = new DeadLetterQueue(Paths.get(config.getDeadLetterDirectory()), config.getDeadLetterSegmentBytes(),
+                config.getDeadLetterMaxBytes(), config.getDeadLetterQueueCapacity());
+        } catch (IOException e) {
+            logger.error("Failed to open dead-letter directory {}: {}", config.getDeadLetterDirectory(), e.getMessage());
+            return false;
+        }
+        
+        try {
+            deadLetters.replay(httpClient, config.getDeadLetterReplayRate()).block();
+            return true;
+        } catch (Exception e) {
+            logger.error("Replay stopped, {} entries left: {}", deadLetters.getPendingEntries(), e.getMessage());
+            return false;
+        } finally {
+            deadLetters.close();
+        }
+    }
+    
+    /**
+     * Main method. Runs the agent, or replays the dead-letter queue when called with
+     * {@code replay-dead-letters}.
      * 
      * @param args Command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0 && "replay-dead-letters".equals(args[0])) {
+            System.exit(replayDeadLetters() ? 0 : 1);
+        }
+        
         try {
             logger.info("Starting Exoquic PostgreSQL Agent using environment variables");
             
@@ -3,6 +3,9 @@ package com.exoquic.agent.config;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Configuration class for the Exoquic PostgreSQL Agent.
  * Handles loading and validating configuration from environment variables.
@@ -10,6 +13,8 @@ import org.apache.logging.log4j.Logger;
 public class AgentConfig {
     private static final Logger logger = LogManager.getLogger(AgentConfig.class);
     
+    private final Map<String, String> env;
+    
     // Database connection
     private String dbHost;
     private int dbPort;
@@ -21,6 +26,21 @@ public class AgentConfig {
     // Replication settings
     private String replicationSlotName;
     private String publicationName;
+    private String captureFormat;
+    private String eventSchemas;
+    
+    // Snapshot settings
+    private String snapshotMode;
+    private int snapshotMaxThreads;
+    private int snapshotFetchSize;
+    private boolean signalsEnabled;
+    private String signalTable;
+    private int incrementalSnapshotChunkSize;
+    
+    // Record and replay settings
+    private String recordFile;
+    private String replayFile;
+    private double replaySpeed;
     
     // HTTP settings
     private String environment;
@@ -28,20 +48,80 @@ public class AgentConfig {
     private String apiKey;
     private int connectionTimeout;
     private int socketTimeout;
+    private String httpProtocol;
+    private boolean httpKeepAlive;
+    private int httpPoolMaxConnections;
+    private int httpPoolPendingAcquireMax;
+    private long httpPoolPendingAcquireTimeoutMs;
+    private long httpPoolMaxIdleTimeMs;
+    private long httpPoolMaxLifeTimeMs;
+    private int http2MaxConcurrentStreams;
+    private int concurrencyLimitInitial;
+    private int concurrencyLimitMin;
+    private int concurrencyLimitMax;
+    private String requestCompression;
+    private int requestCompressionLevel;
+    private int requestCompressionMinBytes;
+    private boolean requestCompressionAdaptive;
     
     // Retry settings
     private int maxRetries;
     private long initialRetryDelayMs;
     private long maxRetryDelayMs;
+    private double retryBudgetRatio;
+    private int retryBudgetMinPerSecond;
+    private float circuitBreakerFailureRate;
+    private long circuitBreakerOpenMs;
     
     // Performance settings
     private int pollIntervalMs;
     private int batchSize;
+    private int produceBatchMaxRecords;
+    private int produceBatchMaxBytes;
+    private long produceLingerMs;
+    private int dispatchLanes;
+    private int maxUnackedEvents;
+    private int handoffCapacity;
+    
+    // Spill settings
+    private boolean spillEnabled;
+    private String spillDirectory;
+    private int spillSegmentBytes;
+    private long spillMaxBytes;
+    
+    // Dead-letter settings
+    private boolean deadLetterEnabled;
+    private String deadLetterDirectory;
+    private int deadLetterSegmentBytes;
+    private long deadLetterMaxBytes;
+    private int deadLetterQueueCapacity;
+    private int deadLetterReplayRate;
+    
+    // Metrics settings
+    private boolean metricsEnabled;
+    private String metricsHost;
+    private int metricsPort;
+    private long freshnessWindowMs;
+    private boolean adminApiEnabled;
+    
+    // Logging settings
+    private int debugSampleRate;
     
     /**
      * Constructor that loads configuration from environment variables.
      */
     public AgentConfig() {
+        this(System.getenv());
+    }
+    
+    /**
+     * Constructor that loads configuration from the given variables instead of the environment,
+     * for tools such as benchmarks that run the agent's components in-process.
+     * 
+     * @param env Configuration variables, named like the environment variables
+     */
+    public AgentConfig(Map<String, String> env) {
+        this.env = env;
         loadFromEnvironment();
         validate();
         logger.info("Configuration loaded successfully from environment variables");
@@ -54,17 +134,34 @@ public class AgentConfig {
         // Exoquic settings
         environment = getRequiredEnv("EXOQUIC_ENV");
 
-        // Database connection settings
-        dbHost = getRequiredEnv("PGHOST");
+        // Record and replay settings
+        recordFile = getEnvOrDefault("RECORD_FILE", null);
+        replayFile = getEnvOrDefault("REPLAY_FILE", null);
+        String speed = getEnvOrDefault("REPLAY_SPEED", "1");
+        replaySpeed = "max".equalsIgnoreCase(speed) ? 0 : Double.parseDouble(speed);
+
+        // Database connection settings; a replay needs no database
+        boolean replaying = replayFile != null;
+        dbHost = replaying ? getEnvOrDefault("PGHOST", "localhost") : getRequiredEnv("PGHOST");
         dbPort = getEnvAsIntOrDefault("PGPORT", 5432);
-        dbName = getRequiredEnv("PGDATABASE");
-        dbUser = getRequiredEnv("PGUSER");
-        dbPassword = getRequiredEnv("PGPASSWORD");
+        dbName = replaying ? getEnvOrDefault("PGDATABASE", "replay") : getRequiredEnv("PGDATABASE");
+        dbUser = replaying ? getEnvOrDefault("PGUSER", "replay") : getRequiredEnv("PGUSER");
+        dbPassword = replaying ? getEnvOrDefault("PGPASSWORD", "replay") : getRequiredEnv("PGPASSWORD");
         dbSchema = getEnvOrDefault("PGSCHEMA", "public");
         
         // Replication settings
         replicationSlotName = getEnvOrDefault("REPLICATION_SLOT_NAME", "exoquic_agent_slot");
         publicationName = getEnvOrDefault("PUBLICATION_NAME", "exoquic_agent_pub");
+        captureFormat = getEnvOrDefault("CAPTURE_FORMAT", "json");
+        eventSchemas = getEnvOrDefault("EVENT_SCHEMAS", "inline");
+        
+        // Snapshot settings
+        snapshotMode = getEnvOrDefault("SNAPSHOT_MODE", "initial");
+        snapshotMaxThreads = getEnvAsIntOrDefault("SNAPSHOT_MAX_THREADS", 1);
+        snapshotFetchSize = getEnvAsIntOrDefault("SNAPSHOT_FETCH_SIZE", 10000);
+        signalsEnabled = Boolean.parseBoolean(getEnvOrDefault("SIGNALS_ENABLED", "false"));
+        signalTable = getEnvOrDefault("SIGNAL_TABLE", "exoquic_signal");
+        incrementalSnapshotChunkSize = getEnvAsIntOrDefault("INCREMENTAL_SNAPSHOT_CHUNK_SIZE", 1024);
         
         // HTTP settings
         exoquicBaseUrl = getEnvOrDefault("EXOQUIC_BASE_URL", String.format("https://%s.kafkahttp.exoquic.com/", environment));
@@ -73,15 +170,64 @@ public class AgentConfig {
         apiKey = getRequiredEnv("EXOQUIC_API_KEY");
         connectionTimeout = getEnvAsIntOrDefault("HTTP_CONNECTION_TIMEOUT", 5000);
         socketTimeout = getEnvAsIntOrDefault("HTTP_SOCKET_TIMEOUT", 30000);
+        httpProtocol = getEnvOrDefault("HTTP_PROTOCOL", "http1");
+        httpKeepAlive = Boolean.parseBoolean(getEnvOrDefault("HTTP_KEEP_ALIVE", "true"));
+        httpPoolMaxConnections = getEnvAsIntOrDefault("HTTP_POOL_MAX_CONNECTIONS", 32);
+        httpPoolPendingAcquireMax = getEnvAsIntOrDefault("HTTP_POOL_PENDING_ACQUIRE_MAX", 1000);
+        httpPoolPendingAcquireTimeoutMs = getEnvAsLongOrDefault("HTTP_POOL_PENDING_ACQUIRE_TIMEOUT_MS", 10000L);
+        httpPoolMaxIdleTimeMs = getEnvAsLongOrDefault("HTTP_POOL_MAX_IDLE_TIME_MS", 30000L);
+        httpPoolMaxLifeTimeMs = getEnvAsLongOrDefault("HTTP_POOL_MAX_LIFE_TIME_MS", 300000L);
+        http2MaxConcurrentStreams = getEnvAsIntOrDefault("HTTP2_MAX_CONCURRENT_STREAMS", 100);
+        concurrencyLimitInitial = getEnvAsIntOrDefault("CONCURRENCY_LIMIT_INITIAL", 16);
+        concurrencyLimitMin = getEnvAsIntOrDefault("CONCURRENCY_LIMIT_MIN", 1);
+        concurrencyLimitMax = getEnvAsIntOrDefault("CONCURRENCY_LIMIT_MAX", 256);
+        requestCompression = getEnvOrDefault("REQUEST_COMPRESSION", "none");
+        requestCompressionLevel = getEnvAsIntOrDefault("REQUEST_COMPRESSION_LEVEL", 0);
+        requestCompressionMinBytes = getEnvAsIntOrDefault("REQUEST_COMPRESSION_MIN_BYTES", 1024);
+        requestCompressionAdaptive = Boolean.parseBoolean(getEnvOrDefault("REQUEST_COMPRESSION_ADAPTIVE", "true"));
         
         // Retry settings
         maxRetries = getEnvAsIntOrDefault("MAX_RETRIES", 5);
         initialRetryDelayMs = getEnvAsLongOrDefault("INITIAL_RETRY_DELAY_MS", 1000L);
         maxRetryDelayMs = getEnvAsLongOrDefault("MAX_RETRY_DELAY_MS", 60000L);
+        retryBudgetRatio = Double.parseDouble(getEnvOrDefault("RETRY_BUDGET_RATIO", "0.1"));
+        retryBudgetMinPerSecond = getEnvAsIntOrDefault("RETRY_BUDGET_MIN_PER_SECOND", 10);
+        circuitBreakerFailureRate = Float.parseFloat(getEnvOrDefault("CIRCUIT_BREAKER_FAILURE_RATE", "50"));
+        circuitBreakerOpenMs = getEnvAsLongOrDefault("CIRCUIT_BREAKER_OPEN_MS", 30000L);
         
         // Performance settings
         pollIntervalMs = getEnvAsIntOrDefault("POLL_INTERVAL_MS", 20);
         batchSize = getEnvAsIntOrDefault("BATCH_SIZE", 64);
+        produceBatchMaxRecords = getEnvAsIntOrDefault("PRODUCE_BATCH_MAX_RECORDS", 500);
+        produceBatchMaxBytes = getEnvAsIntOrDefault("PRODUCE_BATCH_MAX_BYTES", 1024 * 1024);
+        produceLingerMs = getEnvAsLongOrDefault("PRODUCE_LINGER_MS", 5L);
+        dispatchLanes = getEnvAsIntOrDefault("DISPATCH_LANES", 16);
+        maxUnackedEvents = getEnvAsIntOrDefault("MAX_UNACKED_EVENTS", 100000);
+        handoffCapacity = getEnvAsIntOrDefault("HANDOFF_CAPACITY", 8192);
+        
+        // Spill settings
+        spillEnabled = Boolean.parseBoolean(getEnvOrDefault("SPILL_ENABLED", "true"));
+        spillDirectory = getEnvOrDefault("SPILL_DIR", "./spill");
+        spillSegmentBytes = getEnvAsIntOrDefault("SPILL_SEGMENT_BYTES", 64 * 1024 * 1024);
+        spillMaxBytes = getEnvAsLongOrDefault("SPILL_MAX_BYTES", 1024L * 1024 * 1024);
+        
+        // Dead-letter settings
+        deadLetterEnabled = Boolean.parseBoolean(getEnvOrDefault("DEAD_LETTER_ENABLED", "true"));
+        deadLetterDirectory = getEnvOrDefault("DEAD_LETTER_DIR", "./dead-letter");
+        deadLetterSegmentBytes = getEnvAsIntOrDefault("DEAD_LETTER_SEGMENT_BYTES", 16 * 1024 * 1024);
+        deadLetterMaxBytes = getEnvAsLongOrDefault("DEAD_LETTER_MAX_BYTES", 256L * 1024 * 1024);
+        deadLetterQueueCapacity = getEnvAsIntOrDefault("DEAD_LETTER_QUEUE_CAPACITY", 10000);
+        deadLetterReplayRate = getEnvAsIntOrDefault("DEAD_LETTER_REPLAY_RATE", 100);
+        
+        // Metrics settings
+        metricsEnabled = Boolean.parseBoolean(getEnvOrDefault("METRICS_ENABLED", "true"));
+        metricsHost = getEnvOrDefault("METRICS_HOST", "0.0.0.0");
+        metricsPort = getEnvAsIntOrDefault("METRICS_PORT", 9404);
+        freshnessWindowMs = getEnvAsLongOrDefault("FRESHNESS_WINDOW_MS", 60000L);
+        adminApiEnabled = Boolean.parseBoolean(getEnvOrDefault("ADMIN_API_ENABLED", "false"));
+        
+        // Logging settings
+        debugSampleRate = getEnvAsIntOrDefault("DEBUG_SAMPLE_RATE", 10);
     }
     
     /**
@@ -92,7 +238,7 @@ public class AgentConfig {
      * @throws IllegalArgumentException if the environment variable is not found
      */
     private String getRequiredEnv(String key) {
-        String value = System.getenv(key);
+        String value = env.get(key);
         if (value == null || value.isEmpty()) {
             throw new IllegalArgumentException("Required environment variable not found: " + key);
         }
@@ -107,7 +253,7 @@ public class AgentConfig {
      * @return Environment variable value or default value if not found
      */
     private String getEnvOrDefault(String key, String defaultValue) {
-        String value = System.getenv(key);
+        String value = env.get(key);
         return (value != null && !value.isEmpty()) ? value : defaultValue;
     }
     
@@ -120,7 +266,7 @@ public class AgentConfig {
      * @throws NumberFormatException if the environment variable value is not a valid integer
      */
     private int getEnvAsIntOrDefault(String key, int defaultValue) {
-        String value = System.getenv(key);
+        String value = env.get(key);
         try {
             return (value != null && !value.isEmpty()) ? Integer.parseInt(value) : defaultValue;
         } catch (NumberFormatException e) {
@@ -137,7 +283,7 @@ public class AgentConfig {
      * @throws NumberFormatException if the environment variable value is not a valid long
      */
     private long getEnvAsLongOrDefault(String key, long defaultValue) {
-        String value = System.getenv(key);
+        String value = env.get(key);
         try {
             return (value != null && !value.isEmpty()) ? Long.parseLong(value) : defaultValue;
         } catch (NumberFormatException e) {
@@ -184,12 +330,139 @@ public class AgentConfig {
         if (maxRetryDelayMs <= initialRetryDelayMs) {
             throw new IllegalArgumentException("Max retry delay must be greater than initial retry delay");
         }
+        if (retryBudgetRatio < 0) {
+            throw new IllegalArgumentException("Invalid retry budget ratio: " + retryBudgetRatio);
+        }
+        if (retryBudgetMinPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid retry budget min per second: " + retryBudgetMinPerSecond);
+        }
+        if (circuitBreakerFailureRate <= 0 || circuitBreakerFailureRate > 100) {
+            throw new IllegalArgumentException("Invalid circuit breaker failure rate: " + circuitBreakerFailureRate);
+        }
+        if (circuitBreakerOpenMs <= 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker open time: " + circuitBreakerOpenMs);
+        }
         if (pollIntervalMs <= 0) {
             throw new IllegalArgumentException("Invalid poll interval: " + pollIntervalMs);
         }
         if (batchSize <= 0) {
             throw new IllegalArgumentException("Invalid batch size: " + batchSize);
         }
+        if (produceBatchMaxRecords <= 0) {
+            throw new IllegalArgumentException("Invalid produce batch max records: " + produceBatchMaxRecords);
+        }
+        if (produceBatchMaxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid produce batch max bytes: " + produceBatchMaxBytes);
+        }
+        if (produceLingerMs <= 0) {
+            throw new IllegalArgumentException("Invalid produce linger: " + produceLingerMs);
+        }
+        if (dispatchLanes <= 0) {
+            throw new IllegalArgumentException("Invalid dispatch lanes: " + dispatchLanes);
+        }
+        if (maxUnackedEvents <= 0) {
+            throw new IllegalArgumentException("Invalid max unacked events: " + maxUnackedEvents);
+        }
+        if (handoffCapacity <= 1) {
+            throw new IllegalArgumentException("Invalid handoff capacity: " + handoffCapacity);
+        }
+        if (spillSegmentBytes < produceBatchMaxBytes) {
+            throw new IllegalArgumentException("Spill segment size must be at least the produce batch max bytes: " + spillSegmentBytes);
+        }
+        if (spillMaxBytes < spillSegmentBytes) {
+            throw new IllegalArgumentException("Spill max bytes must be at least the spill segment size: " + spillMaxBytes);
+        }
+        if (deadLetterSegmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("Dead-letter segment size must be at least 65536 bytes: " + deadLetterSegmentBytes);
+        }
+        if (deadLetterMaxBytes < deadLetterSegmentBytes) {
+            throw new IllegalArgumentException("Dead-letter max bytes must be at least the dead-letter segment size: " + deadLetterMaxBytes);
+        }
+        if (deadLetterQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid dead-letter queue capacity: " + deadLetterQueueCapacity);
+        }
+        if (deadLetterReplayRate <= 0) {
+            throw new IllegalArgumentException("Invalid dead-letter replay rate: " + deadLetterReplayRate);
+        }
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("Invalid metrics port: " + metricsPort);
+        }
+        if (freshnessWindowMs <= 0) {
+            throw new IllegalArgumentException("Invalid freshness window: " + freshnessWindowMs);
+        }
+        if (debugSampleRate < 0) {
+            throw new IllegalArgumentException("Invalid debug sample rate: " + debugSampleRate);
+        }
+        if (!"http1".equals(httpProtocol) && !"h2".equals(httpProtocol)) {
+            throw new IllegalArgumentException("Invalid HTTP protocol " + httpProtocol + ". Expected either 'http1' or 'h2'");
+        }
+        if (httpPoolMaxConnections <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP pool max connections: " + httpPoolMaxConnections);
+        }
+        if (httpPoolPendingAcquireMax <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP pool pending acquire max: " + httpPoolPendingAcquireMax);
+        }
+        if (httpPoolPendingAcquireTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP pool pending acquire timeout: " + httpPoolPendingAcquireTimeoutMs);
+        }
+        if (httpPoolMaxIdleTimeMs <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP pool max idle time: " + httpPoolMaxIdleTimeMs);
+        }
+        if (httpPoolMaxLifeTimeMs <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP pool max life time: " + httpPoolMaxLifeTimeMs);
+        }
+        if (http2MaxConcurrentStreams <= 0) {
+            throw new IllegalArgumentException("Invalid HTTP/2 max concurrent streams: " + http2MaxConcurrentStreams);
+        }
+        if (concurrencyLimitMin <= 0 || concurrencyLimitMax < concurrencyLimitMin) {
+            throw new IllegalArgumentException("Invalid concurrency limit range: " + concurrencyLimitMin + " to " + concurrencyLimitMax);
+        }
+        if (concurrencyLimitInitial < concurrencyLimitMin || concurrencyLimitInitial > concurrencyLimitMax) {
+            throw new IllegalArgumentException("Initial concurrency limit must be between the min and max limits: " + concurrencyLimitInitial);
+        }
+        if (!"none".equals(requestCompression) && !"gzip".equals(requestCompression) && !"zstd".equals(requestCompression)) {
+            throw new IllegalArgumentException("Invalid request compression " + requestCompression + ". Expected 'none', 'gzip' or 'zstd'");
+        }
+        if (requestCompressionLevel < 0) {
+            throw new IllegalArgumentException("Invalid request compression level: " + requestCompressionLevel);
+        }
+        if (requestCompressionMinBytes < 0) {
+            throw new IllegalArgumentException("Invalid request compression min bytes: " + requestCompressionMinBytes);
+        }
+        if (!"json".equals(captureFormat) && !"connect".equals(captureFormat)) {
+            throw new IllegalArgumentException("Invalid capture format " + captureFormat + ". Expected either 'json' or 'connect'");
+        }
+        if ((recordFile != null || replayFile != null) && !"json".equals(captureFormat)) {
+            throw new IllegalArgumentException("Recording and replaying change events requires the 'json' capture format");
+        }
+        if (recordFile != null && replayFile != null) {
+            throw new IllegalArgumentException("RECORD_FILE and REPLAY_FILE cannot be set together");
+        }
+        if (replaySpeed < 0 || Double.isNaN(replaySpeed) || Double.isInfinite(replaySpeed)) {
+            throw new IllegalArgumentException("Invalid replay speed: " + replaySpeed);
+        }
+        if (!Set.of("initial", "initial_only", "always", "never").contains(snapshotMode)) {
+            throw new IllegalArgumentException("Invalid snapshot mode " + snapshotMode
+                    + ". Expected one of 'initial', 'initial_only', 'always' or 'never'");
+        }
+        if (snapshotMaxThreads < 1) {
+            throw new IllegalArgumentException("Invalid snapshot thread count: " + snapshotMaxThreads);
+        }
+        if (snapshotFetchSize <= 0) {
+            throw new IllegalArgumentException("Invalid snapshot fetch size: " + snapshotFetchSize);
+        }
+        if (signalsEnabled && !signalTable.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid signal table name: " + signalTable);
+        }
+        if (incrementalSnapshotChunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid incremental snapshot chunk size: " + incrementalSnapshotChunkSize);
+        }
+        if (adminApiEnabled && (!metricsEnabled || !signalsEnabled)) {
+            throw new IllegalArgumentException("The admin API requires METRICS_ENABLED and SIGNALS_ENABLED");
+        }
+        if (!"inline".equals(eventSchemas) && !"cached".equals(eventSchemas)) {
+            throw new IllegalArgumentException("Invalid event schemas mode " + eventSchemas + ". Expected either 'inline' or 'cached'");
+        }
         if (!"dev".equals(environment) && !"prod".equals(environment)) {
             throw new IllegalArgumentException("Invalid environment " + environment + ". Expected either 'dev' or 'prod'");
         }
@@ -229,6 +502,105 @@ public class AgentConfig {
         return publicationName;
     }
     
+    public String getCaptureFormat() {
+        return captureFormat;
+    }
+    
+    /**
+     * Gets when Debezium snapshots the existing rows of the captured tables.
+     * 
+     * @return Debezium snapshot mode
+     */
+    public String getSnapshotMode() {
+        return snapshotMode;
+    }
+    
+    /**
+     * Gets how many tables the snapshot reads at the same time, each on its own connection.
+     * 
+     * @return Snapshot thread count
+     */
+    public int getSnapshotMaxThreads() {
+        return snapshotMaxThreads;
+    }
+    
+    /**
+     * Gets how many rows the snapshot fetches from the database per round trip.
+     * 
+     * @return Snapshot fetch size
+     */
+    public int getSnapshotFetchSize() {
+        return snapshotFetchSize;
+    }
+    
+    /**
+     * Checks if Debezium reads signals, such as requests for incremental snapshots, from the
+     * signal table.
+     * 
+     * @return true if the signal table is created and read
+     */
+    public boolean isSignalsEnabled() {
+        return signalsEnabled;
+    }
+    
+    /**
+     * Gets the name of the signal table, in the captured schema.
+     * 
+     * @return Signal table name
+     */
+    public String getSignalTable() {
+        return signalTable;
+    }
+    
+    /**
+     * Gets how many rows an incremental snapshot reads per chunk.
+     * 
+     * @return Chunk size in rows
+     */
+    public int getIncrementalSnapshotChunkSize() {
+        return incrementalSnapshotChunkSize;
+    }
+    
+    public String getEventSchemas() {
+        return eventSchemas;
+    }
+    
+    /**
+     * Checks if JSON change events carry their Connect schema inline.
+     * 
+     * @return true unless the schema-less 'cached' mode is configured
+     */
+    public boolean isEventSchemasEnabled() {
+        return "inline".equals(eventSchemas);
+    }
+    
+    /**
+     * Gets the file that captured change events are recorded to.
+     * 
+     * @return Recording path, or null if events are not recorded
+     */
+    public String getRecordFile() {
+        return recordFile;
+    }
+    
+    /**
+     * Gets the recording to replay instead of capturing change events from the database.
+     * 
+     * @return Recording path, or null to capture from the database
+     */
+    public String getReplayFile() {
+        return replayFile;
+    }
+    
+    /**
+     * Gets how much faster than recorded a recording is replayed.
+     * 
+     * @return Speed factor, or 0 to replay as fast as the pipeline takes events
+     */
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+    
     public String getExoquicBaseUrl() {
         return exoquicBaseUrl;
     }
@@ -245,6 +617,66 @@ public class AgentConfig {
         return socketTimeout;
     }
     
+    public String getHttpProtocol() {
+        return httpProtocol;
+    }
+    
+    public boolean isHttpKeepAlive() {
+        return httpKeepAlive;
+    }
+    
+    public int getHttpPoolMaxConnections() {
+        return httpPoolMaxConnections;
+    }
+    
+    public int getHttpPoolPendingAcquireMax() {
+        return httpPoolPendingAcquireMax;
+    }
+    
+    public long getHttpPoolPendingAcquireTimeoutMs() {
+        return httpPoolPendingAcquireTimeoutMs;
+    }
+    
+    public long getHttpPoolMaxIdleTimeMs() {
+        return httpPoolMaxIdleTimeMs;
+    }
+    
+    public long getHttpPoolMaxLifeTimeMs() {
+        return httpPoolMaxLifeTimeMs;
+    }
+    
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+    
+    public int getConcurrencyLimitInitial() {
+        return concurrencyLimitInitial;
+    }
+    
+    public int getConcurrencyLimitMin() {
+        return concurrencyLimitMin;
+    }
+    
+    public int getConcurrencyLimitMax() {
+        return concurrencyLimitMax;
+    }
+    
+    public String getRequestCompression() {
+        return requestCompression;
+    }
+    
+    public int getRequestCompressionLevel() {
+        return requestCompressionLevel;
+    }
+    
+    public int getRequestCompressionMinBytes() {
+        return requestCompressionMinBytes;
+    }
+    
+    public boolean isRequestCompressionAdaptive() {
+        return requestCompressionAdaptive;
+    }
+    
     public int getMaxRetries() {
         return maxRetries;
     }
@@ -257,6 +689,22 @@ public class AgentConfig {
         return maxRetryDelayMs;
     }
     
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+    
+    public int getRetryBudgetMinPerSecond() {
+        return retryBudgetMinPerSecond;
+    }
+    
+    public float getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+    
+    public long getCircuitBreakerOpenMs() {
+        return circuitBreakerOpenMs;
+    }
+    
     public int getPollIntervalMs() {
         return pollIntervalMs;
     }
@@ -264,6 +712,104 @@ public class AgentConfig {
     public int getBatchSize() {
         return batchSize;
     }
+    
+    public int getProduceBatchMaxRecords() {
+        return produceBatchMaxRecords;
+    }
+    
+    public int getProduceBatchMaxBytes() {
+        return produceBatchMaxBytes;
+    }
+    
+    public long getProduceLingerMs() {
+        return produceLingerMs;
+    }
+    
+    public int getDispatchLanes() {
+        return dispatchLanes;
+    }
+    
+    public int getMaxUnackedEvents() {
+        return maxUnackedEvents;
+    }
+    
+    public int getHandoffCapacity() {
+        return handoffCapacity;
+    }
+    
+    public boolean isSpillEnabled() {
+        return spillEnabled;
+    }
+    
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+    
+    public int getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+    
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+    
+    public boolean isDeadLetterEnabled() {
+        return deadLetterEnabled;
+    }
+    
+    public String getDeadLetterDirectory() {
+        return deadLetterDirectory;
+    }
+    
+    public int getDeadLetterSegmentBytes() {
+        return deadLetterSegmentBytes;
+    }
+    
+    public long getDeadLetterMaxBytes() {
+        return deadLetterMaxBytes;
+    }
+    
+    public int getDeadLetterQueueCapacity() {
+        return deadLetterQueueCapacity;
+    }
+    
+    public int getDeadLetterReplayRate() {
+        return deadLetterReplayRate;
+    }
+    
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+    
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+    
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public long getFreshnessWindowMs() {
+        return freshnessWindowMs;
+    }
+
+    /**
+     * Checks if the admin API is served next to the metrics.
+     * 
+     * @return true if the admin API is enabled
+     */
+    public boolean isAdminApiEnabled() {
+        return adminApiEnabled;
+    }
+
+    /**
+     * Gets how many per-event debug messages each sampled logger writes per second.
+     * 
+     * @return Messages per second, or 0 to write none
+     */
+    public int getDebugSampleRate() {
+        return debugSampleRate;
+    }
 
     public String getEnvironment() {
         return environment;
@@ -6,12 +6,16 @@ import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * Validates and configures PostgreSQL settings required for logical replication.
@@ -111,6 +115,17 @@ public class PostgresConfigValidator {
                     continue;
                 }
 
+                // Create the signal table Debezium reads snapshot requests from
+                if (config.isSignalsEnabled()) {
+                    try {
+                        validateSignalTable(conn, result);
+                    } catch (SQLException e) {
+                        logger.warn("Error validating signal table (attempt {}): {}", attempts + 1, e.getMessage());
+                        attempts++;
+                        continue;
+                    }
+                }
+
                 // Generate connection info
                 try {
                     generateConnectionInfo(conn, result);
@@ -143,6 +158,41 @@ public class PostgresConfigValidator {
         return result;
     }
 
+    /**
+     * Estimates the number of rows of each table in the captured schema from the planner
+     * statistics, without scanning the tables.
+     * 
+     * @return Estimated rows by topic name ([database name].[schema].[table]); tables that were
+     *         never analyzed are left out, and the map is empty if the estimates cannot be read
+     *         within a few seconds
+     */
+    public Map<String, Long> estimateTableRows() {
+        Map<String, Long> estimates = new HashMap<>();
+        String url = String.format("jdbc:postgresql://%s:%d/%s",
+                config.getDbHost(), config.getDbPort(), config.getDbName());
+        // A single attempt with short timeouts, as the estimates only serve progress reporting
+        Properties props = new Properties();
+        props.setProperty("user", config.getDbUser());
+        props.setProperty("password", config.getDbPassword());
+        props.setProperty("connectTimeout", "5");
+        props.setProperty("socketTimeout", "10");
+        try (Connection conn = DriverManager.getConnection(url, props);
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT c.relname, c.reltuples::bigint FROM pg_class c " +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE n.nspname = ? AND c.relkind IN ('r', 'p') AND c.reltuples >= 0")) {
+            stmt.setString(1, config.getDbSchema());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    estimates.put(config.getDbName() + "." + config.getDbSchema() + "." + rs.getString(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not estimate table sizes for snapshot progress: {}", e.getMessage());
+        }
+        return estimates;
+    }
+
     /**
      * Connects to the postgresql server, retries forever.
      */
@@ -384,6 +434,21 @@ public class PostgresConfigValidator {
         }
     }
 
+    /**
+     * Creates the signal table if it does not exist. Debezium reads signals, such as requests
+     * for incremental snapshots, from the rows inserted into it.
+     */
+    private void validateSignalTable(Connection conn, ValidationResult result) throws SQLException {
+        String signalTable = config.getDbSchema() + "." + config.getSignalTable();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + signalTable + " (" +
+                    "id VARCHAR(42) PRIMARY KEY, " +
+                    "type VARCHAR(32) NOT NULL, " +
+                    "data VARCHAR(2048) NULL)");
+            result.addInfo("Signal table is available: " + signalTable);
+        }
+    }
+
     /**
      * Generates connection information summary.
      */
@@ -0,0 +1,206 @@
+package com.exoquic.agent.debezium;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Tracks which captured events have been acknowledged and advances a commit watermark.
+ * <p>
+ * Every event gets a sequence number when it is registered. Events may be acknowledged in any
+ * order, but the watermark only moves past an event once it and every event before it have been
+ * acknowledged. Each time the watermark moves, the commit action is called with the last event
+ * below it and its sequence number, so the source offset is never committed ahead of an
+ * undelivered event. Acknowledging threads call the action outside the lock, so calls may arrive
+ * out of order; the action keeps the highest sequence number it has seen.
+ * <p>
+ * Pending events are kept in a ring indexed by sequence number, with one bit per event marking
+ * it acknowledged. The ring starts small and doubles as needed up to the maximum number of
+ * pending events; registering beyond that blocks until the watermark advances.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @param <E> Type of change event being tracked
+ */
+public class AckTracker<E> {
+    private static final Logger logger = LogManager.getLogger(AckTracker.class);
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ObjLongConsumer<E> commitAction;
+    private final int maxPending;
+
+    private Object[] events;
+    private long[] lsns;
+    private long[] acked;
+    private int mask;
+
+    /** Sequence number of the next event to register. */
+    private long nextSequence;
+    /** Sequence number of the oldest event that has not been acknowledged. */
+    private long watermark;
+    private long committedLsn = -1;
+    private boolean closed;
+
+    /**
+     * Creates a new AckTracker.
+     *
+     * @param maxPending Maximum number of registered events that have not been committed yet
+     * @param commitAction Called with the newest committable event and its sequence number whenever
+     *                     the watermark advances
+     */
+    public AckTracker(int maxPending, ObjLongConsumer<E> commitAction) {
+        this.maxPending = maxPending;
+        this.commitAction = commitAction;
+        allocate(Math.min(INITIAL_CAPACITY, ceilingPowerOfTwo(maxPending)));
+    }
+
+    /**
+     * Registers an event and assigns its sequence number. Blocks while the maximum number of
+     * pending events is reached.
+     *
+     * @param event Event to track
+     * @return Sequence number of the event
+     * @throws InterruptedException if interrupted while waiting for the watermark to advance
+     */
+    public synchronized long register(E event) throws InterruptedException {
+        while (nextSequence - watermark >= maxPending && !closed) {
+            wait();
+        }
+        if (nextSequence - watermark >= events.length) {
+            grow();
+        }
+        long sequence = nextSequence++;
+        int slot = slot(sequence);
+        events[slot] = event;
+        lsns[slot] = -1;
+        return sequence;
+    }
+
+    /**
+     * Acknowledges that an event has been delivered, or that it needs no delivery.
+     * Acknowledging an event more than once has no effect.
+     *
+     * @param sequence Sequence number of the event
+     * @param lsn Log sequence number of the event, or -1 if unknown
+     */
+    @SuppressWarnings("unchecked")
+    public void ack(long sequence, long lsn) {
+        E commitTarget = null;
+        long commitSequence;
+        synchronized (this) {
+            if (sequence < watermark || sequence >= nextSequence) {
+                return;
+            }
+            int slot = slot(sequence);
+            acked[slot >>> 6] |= 1L << slot;
+            lsns[slot] = lsn;
+            if (sequence != watermark) {
+                return;
+            }
+
+            while (watermark < nextSequence) {
+                slot = slot(watermark);
+                long bit = 1L << slot;
+                if ((acked[slot >>> 6] & bit) == 0) {
+                    break;
+                }
+                acked[slot >>> 6] &= ~bit;
+                commitTarget = (E) events[slot];
+                events[slot] = null;
+                committedLsn = Math.max(committedLsn, lsns[slot]);
+                watermark++;
+            }
+            commitSequence = watermark - 1;
+            notifyAll();
+        }
+        commitAction.accept(commitTarget, commitSequence);
+    }
+
+    /**
+     * Releases threads blocked in {@link #register(Object)}. Events registered afterwards are
+     * tracked but no longer bounded.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until every registered event has been acknowledged.
+     *
+     * @param timeoutMillis Maximum time to wait, in milliseconds
+     * @return true if every event was acknowledged, false if the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitAcknowledged(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (watermark < nextSequence && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return watermark == nextSequence;
+    }
+
+    /**
+     * Gets the sequence number below which every event has been acknowledged.
+     *
+     * @return Committed sequence watermark
+     */
+    public synchronized long getCommittedSequence() {
+        return watermark;
+    }
+
+    /**
+     * Gets the highest log sequence number among the committed events.
+     *
+     * @return Committed LSN, or -1 if none is known yet
+     */
+    public synchronized long getCommittedLsn() {
+        return committedLsn;
+    }
+
+    /**
+     * Gets the number of registered events that have not been committed yet.
+     *
+     * @return Pending event count
+     */
+    public synchronized long getPendingCount() {
+        return nextSequence - watermark;
+    }
+
+    private int slot(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    private void allocate(int capacity) {
+        events = new Object[capacity];
+        lsns = new long[capacity];
+        acked = new long[Math.max(1, capacity >>> 6)];
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        Object[] oldEvents = events;
+        long[] oldLsns = lsns;
+        long[] oldAcked = acked;
+        int oldMask = mask;
+
+        allocate(events.length * 2);
+        for (long sequence = watermark; sequence < nextSequence; sequence++) {
+            int oldSlot = (int) sequence & oldMask;
+            int newSlot = slot(sequence);
+            events[newSlot] = oldEvents[oldSlot];
+            lsns[newSlot] = oldLsns[oldSlot];
+            if ((oldAcked[oldSlot >>> 6] & (1L << oldSlot)) != 0) {
+                acked[newSlot >>> 6] |= 1L << newSlot;
+            }
+        }
+        logger.debug("Grew ack tracking window to {} events", events.length);
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,39 @@
+package com.exoquic.agent.debezium;
+
+/**
+ * A change event handed over by Debezium, tagged with its position in the capture order.
+ * The sequence number is used to acknowledge the event once it has been delivered, and the
+ * capture time to measure how long the event takes to get through the pipeline.
+ *
+ * @param <E> Type of change event produced by the configured Debezium output format
+ */
+public class CapturedEvent<E> {
+    private final long sequence;
+    private final E event;
+    private final long capturedNanos;
+
+    /**
+     * Creates a new CapturedEvent.
+     *
+     * @param sequence Position of the event in the capture order
+     * @param event Change event
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the event over
+     */
+    public CapturedEvent(long sequence, E event, long capturedNanos) {
+        this.sequence = sequence;
+        this.event = event;
+        this.capturedNanos = capturedNanos;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public E getEvent() {
+        return event;
+    }
+
+    public long getCapturedNanos() {
+        return capturedNanos;
+    }
+}
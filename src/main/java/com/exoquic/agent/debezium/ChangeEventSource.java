@@ -0,0 +1,44 @@
+package com.exoquic.agent.debezium;
+
+import java.util.List;
+
+/**
+ * A source of change events other than the Debezium connector, such as a load generator, that a
+ * {@link ReactiveDebeziumEngine} publishes in its place. No database is needed, and events go
+ * through the same acknowledgement tracking and handoff as captured ones; there are no source
+ * offsets to commit.
+ *
+ * @param <E> Type of change event produced
+ */
+public interface ChangeEventSource<E> {
+
+    /**
+     * Produces events until the source is exhausted or closed. Called once, on the engine thread.
+     *
+     * @param consumer Takes each batch of events, blocking while the pipeline is saturated
+     * @throws Exception if the source fails
+     */
+    void run(BatchConsumer<E> consumer) throws Exception;
+
+    /**
+     * Asks the source to stop producing events. Called from another thread than {@link #run}.
+     */
+    void close();
+
+    /**
+     * Takes batches of events from a source.
+     *
+     * @param <E> Type of change event
+     */
+    @FunctionalInterface
+    interface BatchConsumer<E> {
+
+        /**
+         * Publishes a batch of events.
+         *
+         * @param events Events in source order
+         * @throws InterruptedException if interrupted while waiting for room in the pipeline
+         */
+        void accept(List<E> events) throws InterruptedException;
+    }
+}
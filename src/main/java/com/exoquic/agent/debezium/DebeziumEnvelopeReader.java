@@ -0,0 +1,441 @@
+package com.exoquic.agent.debezium;
+
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONReader;
+import com.exoquic.agent.model.ChangeRecord;
+import com.exoquic.agent.model.JsonRowImage;
+import com.exoquic.agent.model.RowImage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for Debezium JSON envelopes.
+ * <p>
+ * Extracts only the fields the agent needs ({@code payload.op}, {@code payload.source.{db,schema,table,lsn,ts_ms}},
+ * {@code payload.ddl}, {@code payload.before/after} and the key payload) in a single pass over the event
+ * bytes. The {@code schema} subtree and every other field are skipped without being materialised, and
+ * {@code before}/{@code after} are recorded as byte ranges into the original buffer rather than parsed
+ * into a tree, so wide rows cost no per-column allocation.
+ * <p>
+ * Both converter layouts are supported: with schemas enabled the value is a {@code {schema, payload}}
+ * wrapper, with schemas disabled it is the payload itself.
+ * <p>
+ * Instances are stateless and thread-safe.
+ */
+public class DebeziumEnvelopeReader {
+    private static final byte[] SCHEMA = bytes("schema");
+    private static final byte[] PAYLOAD = bytes("payload");
+    private static final byte[] OP = bytes("op");
+    private static final byte[] SOURCE = bytes("source");
+    private static final byte[] DB = bytes("db");
+    private static final byte[] TABLE = bytes("table");
+    private static final byte[] LSN = bytes("lsn");
+    private static final byte[] TS_MS = bytes("ts_ms");
+    private static final byte[] DDL = bytes("ddl");
+    private static final byte[] BEFORE = bytes("before");
+    private static final byte[] AFTER = bytes("after");
+
+    private final boolean schemasEnabled;
+
+    /**
+     * Creates a new DebeziumEnvelopeReader.
+     *
+     * @param schemasEnabled Whether events carry the {@code {schema, payload}} wrapper
+     */
+    public DebeziumEnvelopeReader(boolean schemasEnabled) {
+        this.schemasEnabled = schemasEnabled;
+    }
+
+    /**
+     * Reads a Debezium change event envelope.
+     *
+     * @param sequence Capture sequence number of the event
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the event over
+     * @param value Event value as UTF-8 JSON
+     * @param key Event key as UTF-8 JSON, or null if the event has no key
+     * @return Parsed change record, or null if the value is not a Debezium envelope
+     * @throws JSONException if the value or key is not well-formed JSON
+     */
+    public ChangeRecord read(long sequence, long capturedNanos, byte[] value, byte[] key) {
+        Cursor in = new Cursor(value);
+        if (!schemasEnabled) {
+            if (in.peek() != '{') {
+                return null;
+            }
+            Envelope envelope = readPayload(in);
+            if (key != null) {
+                readKeyFields(new Cursor(key), envelope);
+            }
+            return envelope.toRecord(sequence, capturedNanos);
+        }
+        in.expect('{');
+
+        boolean hasSchema = false;
+        Envelope envelope = null;
+        if (!in.nextIfObjectEnd()) {
+            do {
+                int nameStart = in.readFieldName();
+                int nameEnd = in.tokenEnd;
+                if (in.nameEquals(nameStart, nameEnd, SCHEMA)) {
+                    hasSchema = true;
+                    in.skipValue();
+                } else if (in.nameEquals(nameStart, nameEnd, PAYLOAD) && in.peek() == '{') {
+                    envelope = readPayload(in);
+                } else {
+                    in.skipValue();
+                }
+            } while (in.nextFieldOrObjectEnd());
+        }
+
+        if (!hasSchema || envelope == null) {
+            return null;
+        }
+
+        if (key != null) {
+            readKey(key, envelope);
+        }
+        return envelope.toRecord(sequence, capturedNanos);
+    }
+
+    private Envelope readPayload(Cursor in) {
+        Envelope envelope = new Envelope();
+        in.expect('{');
+        if (in.nextIfObjectEnd()) {
+            return envelope;
+        }
+
+        do {
+            int nameStart = in.readFieldName();
+            int nameEnd = in.tokenEnd;
+            if (in.nameEquals(nameStart, nameEnd, OP)) {
+                envelope.operation = in.readStringOrNull();
+            } else if (in.nameEquals(nameStart, nameEnd, DDL)) {
+                envelope.ddl = in.readStringOrNull();
+            } else if (in.nameEquals(nameStart, nameEnd, BEFORE)) {
+                int start = in.valueStart();
+                in.skipValue();
+                if (in.buf[start] == '{') {
+                    envelope.before = new JsonRowImage(in.buf, start, in.pos - start);
+                }
+            } else if (in.nameEquals(nameStart, nameEnd, AFTER)) {
+                int start = in.valueStart();
+                in.skipValue();
+                if (in.buf[start] == '{') {
+                    envelope.after = new JsonRowImage(in.buf, start, in.pos - start);
+                }
+            } else if (in.nameEquals(nameStart, nameEnd, SOURCE) && in.peek() == '{') {
+                readSource(in, envelope);
+            } else {
+                in.skipValue();
+            }
+        } while (in.nextFieldOrObjectEnd());
+
+        return envelope;
+    }
+
+    private void readSource(Cursor in, Envelope envelope) {
+        in.expect('{');
+        if (in.nextIfObjectEnd()) {
+            return;
+        }
+
+        do {
+            int nameStart = in.readFieldName();
+            int nameEnd = in.tokenEnd;
+            if (in.nameEquals(nameStart, nameEnd, DB)) {
+                envelope.database = in.readStringOrNull();
+            } else if (in.nameEquals(nameStart, nameEnd, SCHEMA)) {
+                envelope.schema = in.readStringOrNull();
+            } else if (in.nameEquals(nameStart, nameEnd, TABLE)) {
+                envelope.table = in.readStringOrNull();
+            } else if (in.nameEquals(nameStart, nameEnd, LSN)) {
+                envelope.lsn = in.readLongOrDefault(-1);
+            } else if (in.nameEquals(nameStart, nameEnd, TS_MS)) {
+                envelope.commitTimeMs = in.readLongOrDefault(-1);
+            } else {
+                in.skipValue();
+            }
+        } while (in.nextFieldOrObjectEnd());
+    }
+
+    private void readKey(byte[] key, Envelope envelope) {
+        Cursor in = new Cursor(key);
+        in.expect('{');
+        if (in.nextIfObjectEnd()) {
+            return;
+        }
+
+        do {
+            int nameStart = in.readFieldName();
+            int nameEnd = in.tokenEnd;
+            if (in.nameEquals(nameStart, nameEnd, PAYLOAD) && in.peek() == '{') {
+                readKeyFields(in, envelope);
+            } else {
+                in.skipValue();
+            }
+        } while (in.nextFieldOrObjectEnd());
+    }
+
+    private void readKeyFields(Cursor in, Envelope envelope) {
+        in.expect('{');
+        if (in.nextIfObjectEnd()) {
+            return;
+        }
+
+        List<String> names = new ArrayList<>(2);
+        List<String> values = new ArrayList<>(2);
+        do {
+            int nameStart = in.readFieldName();
+            names.add(in.decodeString(nameStart, in.tokenEnd));
+            values.add(in.readScalarAsString());
+        } while (in.nextFieldOrObjectEnd());
+
+        envelope.keyNames = names.toArray(new String[0]);
+        envelope.keyValues = values.toArray(new String[0]);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fields collected while reading an envelope.
+     */
+    private static final class Envelope {
+        private long lsn = -1;
+        private long commitTimeMs = -1;
+        private String operation;
+        private String database;
+        private String schema;
+        private String table;
+        private String ddl;
+        private RowImage before;
+        private RowImage after;
+        private String[] keyNames;
+        private String[] keyValues;
+
+        private ChangeRecord toRecord(long sequence, long capturedNanos) {
+            return new ChangeRecord(sequence, lsn, commitTimeMs, capturedNanos, operation, database, schema, table, ddl,
+                    before, after, keyNames, keyValues);
+        }
+    }
+
+    /**
+     * Position within a JSON document. Positions are byte offsets into {@code buf}.
+     */
+    private static final class Cursor {
+        private final byte[] buf;
+        private int pos;
+        /** End (exclusive) of the content of the last string token read. */
+        private int tokenEnd;
+        /** Whether the last string token read contained escape sequences. */
+        private boolean tokenEscaped;
+
+        private Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        private void skipWhitespace() {
+            while (pos < buf.length) {
+                byte b = buf[pos];
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private byte peek() {
+            skipWhitespace();
+            if (pos >= buf.length) {
+                throw error("Unexpected end of input");
+            }
+            return buf[pos];
+        }
+
+        private int valueStart() {
+            peek();
+            return pos;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private boolean nextIfObjectEnd() {
+            if (peek() == '}') {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consumes the separator after an object member.
+         *
+         * @return true if another member follows, false if the object ended
+         */
+        private boolean nextFieldOrObjectEnd() {
+            byte b = peek();
+            pos++;
+            if (b == ',') {
+                return true;
+            }
+            if (b == '}') {
+                return false;
+            }
+            throw error("Expected ',' or '}'");
+        }
+
+        /**
+         * Reads a member name and the following colon.
+         *
+         * @return Start offset of the name content; the end is left in {@link #tokenEnd}
+         */
+        private int readFieldName() {
+            if (peek() != '"') {
+                throw error("Expected field name");
+            }
+            int start = scanString();
+            expect(':');
+            return start;
+        }
+
+        /**
+         * Scans a string token starting at the opening quote.
+         *
+         * @return Start offset of the string content; the end is left in {@link #tokenEnd}
+         */
+        private int scanString() {
+            int start = ++pos;
+            boolean escaped = false;
+            while (pos < buf.length) {
+                byte b = buf[pos];
+                if (b == '"') {
+                    tokenEnd = pos++;
+                    tokenEscaped = escaped;
+                    return start;
+                }
+                if (b == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+                pos++;
+            }
+            throw error("Unterminated string");
+        }
+
+        private boolean nameEquals(int start, int end, byte[] name) {
+            if (tokenEscaped || end - start != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (buf[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String decodeString(int start, int end) {
+            if (!tokenEscaped) {
+                return new String(buf, start, end - start, StandardCharsets.UTF_8);
+            }
+            // Escapes are rare in identifiers and key values; let fastjson2 handle the full grammar
+            try (JSONReader reader = JSONReader.of(buf, start - 1, end - start + 2)) {
+                return reader.readString();
+            }
+        }
+
+        private String readStringOrNull() {
+            if (peek() == '"') {
+                int start = scanString();
+                return decodeString(start, tokenEnd);
+            }
+            skipValue();
+            return null;
+        }
+
+        /**
+         * Reads an integer number, or returns the default for null and any other value.
+         */
+        private long readLongOrDefault(long defaultValue) {
+            int start = valueStart();
+            skipValue();
+            long result = 0;
+            for (int i = start; i < pos; i++) {
+                byte b = buf[i];
+                if (b < '0' || b > '9' || i - start >= 18) {
+                    return defaultValue;
+                }
+                result = result * 10 + (b - '0');
+            }
+            return result;
+        }
+
+        /**
+         * Reads a value as the string the key formatter expects: decoded content for strings, the literal
+         * text for numbers, booleans and null, and the raw JSON for nested values.
+         */
+        private String readScalarAsString() {
+            if (peek() == '"') {
+                int start = scanString();
+                return decodeString(start, tokenEnd);
+            }
+            int start = pos;
+            skipValue();
+            return new String(buf, start, pos - start, StandardCharsets.UTF_8);
+        }
+
+        private void skipValue() {
+            byte b = peek();
+            switch (b) {
+                case '"' -> scanString();
+                case '{', '[' -> skipContainer();
+                default -> {
+                    int start = pos;
+                    while (pos < buf.length) {
+                        byte c = buf[pos];
+                        if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                            break;
+                        }
+                        pos++;
+                    }
+                    if (pos == start) {
+                        throw error("Expected value");
+                    }
+                }
+            }
+        }
+
+        private void skipContainer() {
+            int depth = 0;
+            while (pos < buf.length) {
+                byte b = buf[pos];
+                if (b == '"') {
+                    scanString();
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        pos++;
+                        return;
+                    }
+                }
+                pos++;
+            }
+            throw error("Unterminated object or array");
+        }
+
+        private JSONException error(String message) {
+            return new JSONException(message + " at offset " + pos);
+        }
+    }
+}
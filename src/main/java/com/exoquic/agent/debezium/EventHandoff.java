@@ -0,0 +1,134 @@
+package com.exoquic.agent.debezium;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded handoff from the Debezium engine thread to the Reactor pipeline.
+ * <p>
+ * Events are buffered in a lock-free single-producer, single-consumer ring that the pipeline
+ * drains as it requests more. When the ring is full, {@link #put(Object)} parks the producing
+ * thread until there is room, so a slow downstream slows down reading the replication stream
+ * instead of growing the heap or dropping events.
+ * <p>
+ * Only one thread may call {@link #put(Object)}, and the flux supports a single subscriber.
+ * {@link #complete()} should be called once the producer has stopped putting events; events put
+ * afterwards are refused.
+ *
+ * @param <T> Type of event handed over
+ */
+public class EventHandoff<T> {
+    private static final Logger logger = LogManager.getLogger(EventHandoff.class);
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Queue<T> queue;
+    private final int capacity;
+    private final Sinks.Many<T> sink;
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new EventHandoff.
+     *
+     * @param capacity Number of events the ring can hold; rounded up to a power of two
+     */
+    public EventHandoff(int capacity) {
+        this.queue = Queues.<T>get(capacity).get();
+        this.capacity = Queues.capacity(queue);
+        this.sink = Sinks.many().unicast().onBackpressureBuffer(queue);
+    }
+
+    /**
+     * Gets the flux of handed over events.
+     *
+     * @return Flux of events
+     */
+    public Flux<T> asFlux() {
+        return sink.asFlux();
+    }
+
+    /**
+     * Hands over an event, waiting while the ring is full.
+     *
+     * @param event Event to hand over
+     * @return true if the event was handed over, false if the handoff was closed or has no subscriber anymore
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean put(T event) throws InterruptedException {
+        long parkNanos = MIN_PARK_NANOS;
+        long blockedSince = 0;
+        while (true) {
+            if (closed) {
+                return false;
+            }
+            Sinks.EmitResult result = sink.tryEmitNext(event);
+            if (result.isSuccess()) {
+                if (blockedSince != 0) {
+                    blockedNanos.add(System.nanoTime() - blockedSince);
+                }
+                return true;
+            }
+            if (result != Sinks.EmitResult.FAIL_OVERFLOW || closed) {
+                logger.warn("Failed to hand over event: {}", result);
+                return false;
+            }
+
+            if (blockedSince == 0) {
+                blockedSince = System.nanoTime();
+                logger.debug("Handoff full ({} events), waiting for the pipeline to catch up", capacity);
+            }
+            LockSupport.parkNanos(this, parkNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Completes the flux once the buffered events have been drained, and releases a waiting producer.
+     */
+    public void complete() {
+        closed = true;
+        // A put that is still emitting makes the completion fail as non-serialized; it finishes shortly
+        while (sink.tryEmitComplete() == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Gets the number of events waiting in the ring.
+     *
+     * @return Current occupancy
+     */
+    public int getOccupancy() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of events the ring can hold.
+     *
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the total time the producer has spent waiting for room.
+     *
+     * @return Blocked time in nanoseconds
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+}
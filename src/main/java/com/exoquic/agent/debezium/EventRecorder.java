@@ -0,0 +1,135 @@
+package com.exoquic.agent.debezium;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import io.debezium.engine.ChangeEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records JSON change events as Debezium hands them over, with their arrival times, so that the
+ * traffic can be replayed later by a {@link RecordingSource} without a database.
+ * <p>
+ * A recording is a zstd stream of tagged entries. Every time the agent starts recording, a
+ * session header is appended, followed by one entry per event:
+ * <pre>
+ * session: [byte 1][int magic][int version][long start, epoch ms]
+ * event:   [byte 2][long arrival, ns since session start][UTF destination]
+ *          [int key length | -1][key, UTF-8][int value length | -1][value, UTF-8]
+ * </pre>
+ * Each session is its own zstd frame, so recordings of several runs can be appended to one
+ * file. Data is flushed with the first event a second after the previous flush, so a crash
+ * loses the events recorded since then.
+ * <p>
+ * Recording is done on the engine thread. If writing fails, recording stops and capture goes on.
+ */
+public class EventRecorder {
+    private static final Logger logger = LogManager.getLogger(EventRecorder.class);
+
+    static final int MAGIC = 0x45585152;
+    static final int VERSION = 1;
+    static final byte SESSION = 1;
+    static final byte EVENT = 2;
+
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path file;
+    private final DataOutputStream out;
+    private final long startNanos;
+    private long lastFlushNanos;
+    private long recorded;
+    private boolean closed;
+
+    /**
+     * Opens a recording, appending to the file if it exists.
+     *
+     * @param file Recording path
+     * @throws IOException if the file cannot be opened
+     */
+    public EventRecorder(Path file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new ZstdOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)), 64 * 1024));
+        this.startNanos = System.nanoTime();
+        this.lastFlushNanos = startNanos;
+        out.writeByte(SESSION);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        logger.info("Recording change events to {}", file);
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @param event Change event with String key and value
+     * @param arrivalNanos {@link System#nanoTime()} when Debezium handed the event over
+     */
+    public synchronized void record(ChangeEvent<?, ?> event, long arrivalNanos) {
+        if (closed) {
+            return;
+        }
+        try {
+            out.writeByte(EVENT);
+            out.writeLong(arrivalNanos - startNanos);
+            out.writeUTF(event.destination() == null ? "" : event.destination());
+            writeString((String) event.key());
+            writeString((String) event.value());
+            recorded++;
+            if (arrivalNanos - lastFlushNanos >= FLUSH_INTERVAL_NANOS) {
+                out.flush();
+                lastFlushNanos = arrivalNanos;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to record change event to {}, recording stopped after {} events", file, recorded, e);
+            closed = true;
+            closeQuietly();
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Gets the number of events recorded in this session.
+     *
+     * @return Recorded events
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Finishes the recording.
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            closeQuietly();
+            logger.info("Recorded {} change events to {}", recorded, file);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Error closing recording {}", file, e);
+        }
+    }
+}
@@ -2,53 +2,142 @@ package com.exoquic.agent.debezium;
 
 import com.exoquic.agent.config.AgentConfig;
 import com.exoquic.agent.database.PostgresConfigValidator;
+import com.exoquic.agent.logging.SampledLogger;
+import io.debezium.embedded.Connect;
 import io.debezium.engine.ChangeEvent;
 import io.debezium.engine.DebeziumEngine;
-import io.debezium.engine.DebeziumEngine.Builder;
-import io.debezium.engine.DebeziumEngine.ChangeConsumer;
-import io.debezium.engine.DebeziumEngine.RecordCommitter;
+import io.debezium.engine.RecordChangeEvent;
+import io.debezium.engine.format.ChangeEventFormat;
 import io.debezium.engine.format.Json;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
-public class ReactiveDebeziumEngine {
+/**
+ * Runs the embedded Debezium engine and publishes its change events as a Flux.
+ * <p>
+ * Each event is registered with an {@link AckTracker} before it is published. Source offsets are
+ * committed only up to the newest event for which it and every earlier event have been acknowledged,
+ * so after a restart capture resumes at the oldest event that may not have reached Exoquic.
+ * <p>
+ * Instead of the connector, the engine can publish the events of a {@link ChangeEventSource},
+ * which runs the same pipeline without a database. With a record file configured, the events the
+ * connector hands over are also appended to it by an {@link EventRecorder}, for later replay by a
+ * {@link RecordingSource}.
+ *
+ * @param <E> Type of change event produced by the configured Debezium output format
+ */
+public class ReactiveDebeziumEngine<E> {
     private static final Logger logger = LogManager.getLogger(ReactiveDebeziumEngine.class);
     
+    private final SampledLogger sampledLogger;
     private final AgentConfig config;
-    private DebeziumEngine<?> engine;
-    private final Sinks.Many<ChangeEvent<String, String>> eventSink;
-    private final Flux<ChangeEvent<String, String>> eventFlux;
+    private final Supplier<DebeziumEngine.Builder<E>> engineBuilder;
+    private final ChangeEventSource<E> source;
+    private DebeziumEngine<E> engine;
+    private final EventHandoff<CapturedEvent<E>> handoff;
+    private final AckTracker<E> ackTracker;
+    private final AtomicReference<PendingCommit<E>> pendingCommit = new AtomicReference<>();
+    /** Sequence number of the last event marked as processed; guarded by this. */
+    private long markedSequence = -1;
+    private volatile DebeziumEngine.RecordCommitter<E> committer;
+    /** Held by the producing thread while it registers and hands over events. */
+    private final ReentrantLock intakeLock = new ReentrantLock();
+    private volatile boolean intakeClosed;
     private ExecutorService executor;
+    private ExecutorService commitExecutor;
+    private EventRecorder recorder;
     
     /**
      * Creates a new ReactiveDebeziumEngine with the specified configuration.
      * 
      * @param config Agent configuration
+     * @param engineBuilder Creates the Debezium engine builder for the desired output format, or null with a source
+     * @param source Source to publish instead of the Debezium connector, or null
      */
-    public ReactiveDebeziumEngine(AgentConfig config) {
+    private ReactiveDebeziumEngine(AgentConfig config, Supplier<DebeziumEngine.Builder<E>> engineBuilder,
+                                   ChangeEventSource<E> source) {
         this.config = config;
-        this.eventSink = Sinks.many().multicast().onBackpressureBuffer();
-        this.eventFlux = eventSink.asFlux();
+        this.engineBuilder = engineBuilder;
+        this.source = source;
+        this.handoff = new EventHandoff<>(config.getHandoffCapacity());
+        this.ackTracker = new AckTracker<>(config.getMaxUnackedEvents(), this::requestCommit);
+        this.sampledLogger = new SampledLogger(ReactiveDebeziumEngine.class, config.getDebugSampleRate());
         logger.info("ReactiveDebeziumEngine initialized");
     }
     
     /**
-     * Gets the flux of change events.
+     * Creates an engine that renders each change event to JSON key and value Strings.
      * 
-     * @return Flux of change events
+     * @param config Agent configuration
+     * @return Engine producing JSON change events
+     */
+    public static ReactiveDebeziumEngine<ChangeEvent<String, String>> json(AgentConfig config) {
+        return new ReactiveDebeziumEngine<>(config, () -> DebeziumEngine.create(Json.class), null);
+    }
+    
+    /**
+     * Creates an engine that hands over each change event as the Kafka Connect {@link SourceRecord}
+     * the connector produced, without running it through a converter.
+     * 
+     * @param config Agent configuration
+     * @return Engine producing Connect change events
+     */
+    public static ReactiveDebeziumEngine<RecordChangeEvent<SourceRecord>> connect(AgentConfig config) {
+        return new ReactiveDebeziumEngine<>(config, () -> DebeziumEngine.create(ChangeEventFormat.of(Connect.class)), null);
+    }
+    
+    /**
+     * Creates an engine that publishes the events of a source instead of running the Debezium connector.
+     * 
+     * @param config Agent configuration
+     * @param source Source of change events
+     * @param <E> Type of change event produced by the source
+     * @return Engine producing the source's events
+     */
+    public static <E> ReactiveDebeziumEngine<E> fromSource(AgentConfig config, ChangeEventSource<E> source) {
+        return new ReactiveDebeziumEngine<>(config, null, source);
+    }
+    
+    /**
+     * Gets the flux of change events. Every event must eventually be acknowledged through
+     * {@link #getAckTracker()}, whether it was delivered or deliberately skipped.
+     * 
+     * @return Flux of change events tagged with their capture sequence numbers
+     */
+    public Flux<CapturedEvent<E>> getEventFlux() {
+        return handoff.asFlux();
+    }
+    
+    /**
+     * Gets the handoff between the engine thread and the pipeline, for inspecting its occupancy.
+     * 
+     * @return Event handoff
      */
-    public Flux<ChangeEvent<String, String>> getEventFlux() {
-        return eventFlux;
+    public EventHandoff<CapturedEvent<E>> getHandoff() {
+        return handoff;
+    }
+    
+    /**
+     * Gets the tracker that captured events are acknowledged to.
+     * 
+     * @return Ack tracker
+     */
+    public AckTracker<E> getAckTracker() {
+        return ackTracker;
     }
     
     /**
@@ -57,6 +146,11 @@ public class ReactiveDebeziumEngine {
      * @throws RuntimeException if the engine fails to start
      */
     public void start() {
+        if (source != null) {
+            startSource();
+            return;
+        }
+        
         logger.info("Starting Debezium engine");
         Properties props = createDebeziumProperties();
         
@@ -77,14 +171,19 @@ public class ReactiveDebeziumEngine {
         }
 
         try {
-            // Create and configure the engine with the Json format
-            this.engine = DebeziumEngine.create(Json.class)
+            if (config.getRecordFile() != null) {
+                this.recorder = new EventRecorder(Paths.get(config.getRecordFile()));
+            }
+            
+            // Create and configure the engine with the configured output format
+            this.engine = engineBuilder.get()
                 .using(props)
                 .notifying(this::handleChangeEvent)
                 .build();
                 
             // Start the engine in a separate thread with enhanced error handling
             this.executor = Executors.newSingleThreadExecutor();
+            this.commitExecutor = Executors.newSingleThreadExecutor();
             
             executor.execute(engine);
             logger.info("Debezium engine started successfully");
@@ -95,40 +194,139 @@ public class ReactiveDebeziumEngine {
     }
     
     /**
-     * Handles change events from Debezium.
+     * Runs the change event source on the engine thread.
+     */
+    private void startSource() {
+        logger.info("Publishing change events from {} instead of the database", source.getClass().getSimpleName());
+        this.executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            try {
+                source.run(records -> handleChangeEvent(records, null));
+                logger.info("Change event source is exhausted");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Change event source failed", e);
+            }
+        });
+    }
+    
+    /**
+     * Handles change events from Debezium. Events are registered for acknowledgement and published;
+     * their offsets are committed later, once they have been acknowledged. Registering blocks while
+     * too many events are unacknowledged, and publishing blocks while the pipeline is saturated,
+     * which pauses capture. Once the intake is closed, the remaining events are neither registered
+     * nor handed over; their offsets are not marked, so they are redelivered after a restart.
      * 
      * @param records List of change events
-     * @param committer Record committer
+     * @param committer Record committer, or null if the events come from a source without offsets
+     * @throws InterruptedException if interrupted while waiting for acknowledgements
      */
-    @SuppressWarnings("unchecked")
-    private void handleChangeEvent(List<?> records, DebeziumEngine.RecordCommitter<?> committer) {
-        DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> typedCommitter = 
-            (DebeziumEngine.RecordCommitter<ChangeEvent<String, String>>) committer;
-        
-        for (Object record : records) {
-            try {
-                ChangeEvent<String, String> changeEvent = 
-                    (ChangeEvent<String, String>) record;
-                
-                logger.debug("Received change event: key={}, value={}",
-                    changeEvent.key(), changeEvent.value());
-                
-                Sinks.EmitResult result = eventSink.tryEmitNext(changeEvent);
-                if (result.isFailure()) {
-                    logger.warn("Failed to emit event: {}", result);
+    private void handleChangeEvent(List<E> records, DebeziumEngine.RecordCommitter<E> committer) throws InterruptedException {
+        this.committer = committer;
+        intakeLock.lockInterruptibly();
+        try {
+            for (E changeEvent : records) {
+                if (intakeClosed) {
+                    logger.debug("Intake is closed; remaining events will be redelivered after a restart");
+                    return;
                 }
-
-                typedCommitter.markProcessed(changeEvent);
-            } catch (Exception e) {
-                logger.error("Error processing record", e);
+                long capturedNanos = System.nanoTime();
+                if (recorder != null && changeEvent instanceof ChangeEvent<?, ?> event) {
+                    recorder.record(event, capturedNanos);
+                }
+                long sequence = ackTracker.register(changeEvent);
+                if (sampledLogger.sample()) {
+                    sampledLogger.debug("Received change event {}: {}", sequence, changeEvent);
+                }
+                if (!handoff.put(new CapturedEvent<>(sequence, changeEvent, capturedNanos))) {
+                    logger.warn("Pipeline is not accepting events; event {} will be redelivered after a restart", sequence);
+                }
+            }
+        } finally {
+            intakeLock.unlock();
+        }
+    }
+    
+    /**
+     * Stops taking events from Debezium and completes the handoff once the producing thread has
+     * handed over its current event, so that every registered event reaches the pipeline.
+     * 
+     * @throws InterruptedException if interrupted while waiting for the producing thread
+     */
+    private void closeIntake() throws InterruptedException {
+        intakeClosed = true;
+        ackTracker.close();
+        if (intakeLock.tryLock(5, TimeUnit.SECONDS)) {
+            try {
+                handoff.complete();
+            } finally {
+                intakeLock.unlock();
             }
+        } else {
+            logger.warn("Capture thread did not hand over its event in time; completing the handoff anyway");
+            handoff.complete();
+        }
+    }
+    
+    /**
+     * Schedules committing the offset of an acknowledged event. Requests that arrive while a commit
+     * is waiting replace it, so only the newest offset is written. Once the engine is stopping,
+     * the offset is marked on the acknowledging thread, so that it is not lost before the engine
+     * writes its final offsets.
+     * <p>
+     * Acknowledging threads may request commits out of order, so a request only replaces a waiting
+     * one with a higher sequence number.
+     * 
+     * @param event Newest event whose offset may be committed
+     * @param sequence Sequence number of the event
+     */
+    private void requestCommit(E event, long sequence) {
+        PendingCommit<E> next = new PendingCommit<>(event, sequence);
+        PendingCommit<E> current;
+        do {
+            current = pendingCommit.get();
+            if (current != null && current.sequence() >= sequence) {
+                return;
+            }
+        } while (!pendingCommit.compareAndSet(current, next));
+        if (current != null || commitExecutor == null) {
+            return;
+        }
+        if (commitExecutor.isShutdown()) {
+            commitPending();
+            return;
+        }
+        try {
+            commitExecutor.execute(this::commitPending);
+        } catch (RejectedExecutionException e) {
+            commitPending();
+        }
+    }
+    
+    /**
+     * Marks the newest acknowledged event as processed. The engine writes the offset to the offset
+     * store according to its flush interval. An event older than the last one marked is skipped,
+     * so the committed offset never moves backwards.
+     */
+    private synchronized void commitPending() {
+        PendingCommit<E> pending = pendingCommit.getAndSet(null);
+        DebeziumEngine.RecordCommitter<E> currentCommitter = committer;
+        if (pending == null || currentCommitter == null || pending.sequence() <= markedSequence) {
+            return;
         }
         
         try {
-            typedCommitter.markBatchFinished();
+            currentCommitter.markProcessed(pending.event());
+            currentCommitter.markBatchFinished();
+            markedSequence = pending.sequence();
+            logger.debug("Committed offsets up to sequence {} (LSN {})",
+                ackTracker.getCommittedSequence(), ackTracker.getCommittedLsn());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            logger.error("Interrupted while marking batch finished", e);
+            logger.error("Interrupted while committing offsets", e);
+        } catch (Exception e) {
+            logger.error("Error committing offsets", e);
         }
     }
     
@@ -170,9 +368,22 @@ public class ReactiveDebeziumEngine {
         // Added optimizations for low latency
         props.put("schema.refresh.mode", "columns_diff_exclude_unchanged_toast"); // Better performance for schema handling
 
+        // Leave the Connect schema out of JSON events; the Connect capture path never serializes it
+        props.setProperty("converter.schemas.enable", String.valueOf(config.isEventSchemasEnabled()));
 
-        // Snapshot options
-        props.setProperty("snapshot.mode", "initial");
+        // Snapshot options. With several threads, each table is read on its own connection; like the
+        // single-threaded snapshot, every connection reads at a snapshot taken after the replication
+        // slot was created, and the changes since then are streamed from the slot afterwards.
+        props.setProperty("snapshot.mode", config.getSnapshotMode());
+        props.setProperty("snapshot.max.threads", String.valueOf(config.getSnapshotMaxThreads()));
+        props.setProperty("snapshot.fetch.size", String.valueOf(config.getSnapshotFetchSize()));
+        
+        // Incremental snapshots, requested through the signal table, are read in chunks between
+        // watermarks while changes keep streaming
+        if (config.isSignalsEnabled()) {
+            props.setProperty("signal.data.collection", config.getDbSchema() + "." + config.getSignalTable());
+            props.setProperty("incremental.snapshot.chunk.size", String.valueOf(config.getIncrementalSnapshotChunkSize()));
+        }
 
         props.setProperty("topic.prefix", "topicprefix");
         props.setProperty("plugin.name", "pgoutput");
@@ -186,16 +397,35 @@ public class ReactiveDebeziumEngine {
     public void stop() {
         logger.info("Stopping Debezium engine");
         
+        if (source != null) {
+            source.close();
+            try {
+                closeIntake();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            shutdownExecutor();
+            return;
+        }
+        
         if (engine != null) {
             try {
+                // Let the pipeline drain the handed over events and wait for their acknowledgements,
+                // then mark the last acknowledged offset before the engine writes its final offsets
+                closeIntake();
+                if (!ackTracker.awaitAcknowledged(TimeUnit.SECONDS.toMillis(5))) {
+                    logger.warn("Stopping with unacknowledged events; events from sequence {} on will be redelivered after a restart",
+                        ackTracker.getCommittedSequence());
+                }
+                if (commitExecutor != null) {
+                    commitExecutor.shutdown();
+                    commitExecutor.awaitTermination(5, TimeUnit.SECONDS);
+                }
+                commitPending();
                 engine.close();
-                eventSink.tryEmitComplete();
-                
-                if (executor != null) {
-                    executor.shutdown();
-                    if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                        executor.shutdownNow();
-                    }
+                shutdownExecutor();
+                if (recorder != null) {
+                    recorder.close();
                 }
                 
                 logger.info("Debezium engine stopped successfully");
@@ -207,4 +437,22 @@ public class ReactiveDebeziumEngine {
             }
         }
     }
+    
+    private void shutdownExecutor() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private record PendingCommit<E>(E event, long sequence) {
+    }
 }
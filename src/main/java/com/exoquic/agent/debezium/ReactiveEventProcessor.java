@@ -1,38 +1,134 @@
 package com.exoquic.agent.debezium;
 
-import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONException;
-import com.alibaba.fastjson2.JSONObject;
-import com.alibaba.fastjson2.JSONArray;
 import com.exoquic.agent.config.AgentConfig;
+import com.exoquic.agent.debezium.TableMetadataCache.TableMetadata;
+import com.exoquic.agent.http.DeadLetterQueue;
+import com.exoquic.agent.http.DispatchLanes;
+import com.exoquic.agent.http.KafkaRestEnvelopeWriter;
+import com.exoquic.agent.http.ProduceFailure;
+import com.exoquic.agent.http.ProduceResponse;
+import com.exoquic.agent.http.ProduceBatcher;
 import com.exoquic.agent.http.ReactiveHttpClient;
+import com.exoquic.agent.http.SpillQueue;
+import com.exoquic.agent.logging.SampledLogger;
+import com.exoquic.agent.metrics.Counter;
+import com.exoquic.agent.metrics.FreshnessTracker;
+import com.exoquic.agent.metrics.Histogram;
+import com.exoquic.agent.metrics.MetricsRegistry;
+import com.exoquic.agent.metrics.SnapshotProgress;
 import com.exoquic.agent.model.ChangeEventType;
+import com.exoquic.agent.model.ChangeRecord;
+import com.exoquic.agent.model.ExoquicEvent;
+import com.exoquic.agent.model.ProduceBatch;
+import com.exoquic.agent.model.RowImage;
 import io.debezium.engine.ChangeEvent;
+import io.debezium.engine.RecordChangeEvent;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 
 /**
  * Processes Debezium change events and transforms them into the format expected by Exoquic.
  * Uses a reactive approach with Project Reactor.
+ * <p>
+ * Every captured event is acknowledged exactly when it no longer needs delivering: once Exoquic
+ * has written it, once the request carrying it is stored in the spill queue, once it has been
+ * dead-lettered after Exoquic rejected it for good, or right away if it is skipped. Events of
+ * requests that can be neither delivered nor spilled are not acknowledged, which holds back the
+ * committed offset.
+ * <p>
+ * The parse, filter, topic, key and transform steps are package-private so that the benchmarks
+ * in {@code benchmarks/} can measure them one by one.
  */
 public class ReactiveEventProcessor {
     private static final Logger logger = LogManager.getLogger(ReactiveEventProcessor.class);
     
     private final ReactiveHttpClient httpClient;
     private final AgentConfig config;
+    private final DebeziumEnvelopeReader envelopeReader;
+    private final SourceRecordReader sourceRecordReader;
+    private final KafkaRestEnvelopeWriter envelopeWriter = new KafkaRestEnvelopeWriter(PooledByteBufAllocator.DEFAULT);
+    private final ProduceBatcher batcher;
+    private final DispatchLanes lanes;
+    private final AckTracker<?> ackTracker;
+    private final SpillQueue spillQueue;
+    private final DeadLetterQueue deadLetters;
+    private final Counter received;
+    private final Counter filteredNoValue;
+    private final Counter filteredUnparseable;
+    private final Counter filteredSchemaChange;
+    private final Counter filteredSignal;
+    private final Counter filteredEmpty;
+    private final Counter filteredOperation;
+    private final Counter filteredNoData;
+    private final Counter filteredTransformError;
+    private final Counter recordRetries;
+    private final Histogram transformTime;
+    private final FreshnessTracker freshness;
+    private final SnapshotProgress snapshotProgress;
+    private final SampledLogger sampledLogger;
+    private final TableMetadataCache tableMetadata = new TableMetadataCache();
+    
     /**
      * Creates a new ReactiveEventProcessor with the specified configuration and HTTP client.
      * 
      * @param config Agent configuration
      * @param httpClient HTTP client for sending events
+     * @param ackTracker Tracker that handled events are acknowledged to
+     * @param spillQueue Queue for requests that cannot be delivered, or null to keep them unacknowledged
+     * @param deadLetters Queue for events that Exoquic rejects for good, or null to drop them
+     * @param metrics Registry for the pipeline metrics
+     * @param freshness Tracker that the latency of delivered events is recorded to
+     * @param snapshotProgress Tracker that snapshot rows are counted to
      */
-    public ReactiveEventProcessor(AgentConfig config, ReactiveHttpClient httpClient) {
+    public ReactiveEventProcessor(AgentConfig config, ReactiveHttpClient httpClient, AckTracker<?> ackTracker,
+                                  SpillQueue spillQueue, DeadLetterQueue deadLetters, MetricsRegistry metrics,
+                                  FreshnessTracker freshness, SnapshotProgress snapshotProgress) {
         this.config = config;
         this.httpClient = httpClient;
+        this.ackTracker = ackTracker;
+        this.spillQueue = spillQueue;
+        this.deadLetters = deadLetters;
+        this.freshness = freshness;
+        this.snapshotProgress = snapshotProgress;
+        this.sampledLogger = new SampledLogger(ReactiveEventProcessor.class, config.getDebugSampleRate());
+        
+        StructJsonWriter structWriter = new StructJsonWriter();
+        this.envelopeReader = new DebeziumEnvelopeReader(config.isEventSchemasEnabled());
+        this.sourceRecordReader = new SourceRecordReader(structWriter, new SchemaCache(structWriter));
+        this.batcher = new ProduceBatcher(config.getProduceBatchMaxRecords(), config.getProduceBatchMaxBytes(),
+                Duration.ofMillis(config.getProduceLingerMs()));
+        this.lanes = new DispatchLanes(config.getDispatchLanes());
+        
+        String filtered = "exoquic_events_filtered_total";
+        String filteredHelp = "Change events skipped instead of sent, by reason";
+        this.received = metrics.counter("exoquic_events_received_total", "Change events received from Debezium");
+        this.filteredNoValue = metrics.counter(filtered, filteredHelp, "reason", "no_value");
+        this.filteredUnparseable = metrics.counter(filtered, filteredHelp, "reason", "unparseable");
+        this.filteredSchemaChange = metrics.counter(filtered, filteredHelp, "reason", "schema_change");
+        this.filteredSignal = metrics.counter(filtered, filteredHelp, "reason", "signal");
+        this.filteredEmpty = metrics.counter(filtered, filteredHelp, "reason", "empty");
+        this.filteredOperation = metrics.counter(filtered, filteredHelp, "reason", "unsupported_operation");
+        this.filteredNoData = metrics.counter(filtered, filteredHelp, "reason", "no_data");
+        this.filteredTransformError = metrics.counter(filtered, filteredHelp, "reason", "transform_error");
+        this.recordRetries = metrics.counter("exoquic_record_retries_total",
+                "Events sent again after Kafka reported a retriable error for them");
+        this.transformTime = metrics.histogram("exoquic_transform_duration_seconds",
+                "Time to transform a change record into an Exoquic event", Histogram.SHORT_SECONDS);
+        for (int lane = 0; lane < lanes.getLaneCount(); lane++) {
+            int index = lane;
+            metrics.gauge("exoquic_lane_queue_depth", "Events assigned to a dispatch lane that have not finished sending",
+                    () -> lanes.getQueueDepth(index), "lane", String.valueOf(lane));
+        }
         logger.info("ReactiveEventProcessor initialized");
     }
     
@@ -42,241 +138,542 @@ public class ReactiveEventProcessor {
      * @param eventFlux Flux of change events from Debezium
      * @return Flux of processed events
      */
-    public Flux<Void> processEvents(Flux<ChangeEvent<String, String>> eventFlux) {
-        return eventFlux
-                .filter(this::isValidEvent)
-                .flatMap(event -> transformEvent(event)
-                        .flatMap(eventPayload -> {
-                            // The topic name is [database].[schema].[table name]
-                            String topicName = getTopicName(event);
-
-                            // Retrieve the primary key, which is used as the event key and the channel.
-                            String primaryKey = extractPrimaryKey(event);
-
-                            JSONObject recordObj = new JSONObject();
-                            recordObj.put("key", primaryKey);
-
-                            try {
-                                recordObj.put("value", JSON.parse(eventPayload));
-                            } catch (JSONException jsonException) {
-                                logger.warn("Failed to json deserialize event payload. Continuing without json deserialization", jsonException);
-                                recordObj.put("value", eventPayload);
-                            }
-
-                            // Add headers
-                            JSONObject headerObj = new JSONObject();
-                            headerObj.put("key", "channel");
-                            headerObj.put("value", new String(Base64.getEncoder().encode(primaryKey.getBytes())));
-
-                            JSONArray headersArray = new JSONArray();
-                            headersArray.add(headerObj);
-                            recordObj.put("headers", headersArray);
-
-                            // Create the records array
-                            JSONArray recordsArray = new JSONArray();
-                            recordsArray.add(recordObj);
-
-                            // Create the final payload
-                            JSONObject finalPayload = new JSONObject();
-                            finalPayload.put("records", recordsArray);
-
-                            String payload = JSON.toJSONString(finalPayload);
-
-                            return httpClient.sendEvent(payload, topicName);
-                        })
-                )
+    public Flux<Void> processEvents(Flux<CapturedEvent<ChangeEvent<String, String>>> eventFlux) {
+        return processRecords(eventFlux.doOnNext(captured -> received.increment()).mapNotNull(this::parseEvent));
+    }
+    
+    /**
+     * Processes a flux of change events captured as Kafka Connect source records.
+     * 
+     * @param eventFlux Flux of Connect change events from Debezium
+     * @return Flux of processed events
+     */
+    public Flux<Void> processConnectEvents(Flux<CapturedEvent<RecordChangeEvent<SourceRecord>>> eventFlux) {
+        return processRecords(eventFlux.doOnNext(captured -> received.increment()).mapNotNull(this::readSourceRecord));
+    }
+    
+    /**
+     * Filters, transforms, batches and sends parsed change records. Events are sent through
+     * key-ordered lanes, so events of the same channel arrive at Exoquic in capture order.
+     * 
+     * @param recordFlux Flux of parsed change records
+     * @return Flux of processed events
+     */
+    private Flux<Void> processRecords(Flux<ChangeRecord> recordFlux) {
+        return recordFlux
+                .filter(record -> isValidEvent(record) || acknowledge(record))
+                .mapNotNull(record -> {
+                    long start = System.nanoTime();
+                    ExoquicEvent event = transformEvent(record);
+                    transformTime.observeNanos(System.nanoTime() - start);
+                    if (event == null) {
+                        acknowledge(record);
+                    }
+                    return event;
+                })
+                .transform(events -> lanes.dispatch(events, batcher::batch, this::sendBatch))
                 .doOnNext(v -> logger.debug("Event processed successfully"))
                 .doOnError(e -> logger.error("Error processing event", e));
     }
     
     /**
-     * Checks if an event is valid for processing.
+     * Gets the dispatch lanes events are sent through, for inspecting their queue depths.
+     * 
+     * @return Dispatch lanes
+     */
+    public DispatchLanes getLanes() {
+        return lanes;
+    }
+    
+    /**
+     * Acknowledges a record that is skipped rather than sent.
+     * 
+     * @param record Skipped change record
+     * @return Always false, so it can be used to drop the record from a filter
+     */
+    private boolean acknowledge(ChangeRecord record) {
+        ackTracker.ack(record.getSequence(), record.getLsn());
+        return false;
+    }
+    
+    /**
+     * Acknowledges every event of a batch that Exoquic has accepted.
      * 
-     * @param event Change event
-     * @return true if the event is valid, false otherwise
+     * @param batch Delivered batch
      */
-    private boolean isValidEvent(ChangeEvent<String, String> event) {
+    private void acknowledge(ProduceBatch batch) {
+        for (ExoquicEvent event : batch.getEvents()) {
+            ackTracker.ack(event.getSequence(), event.getLsn());
+        }
+    }
+    
+    /**
+     * Acknowledges an event that Exoquic has written, and records how long it took to get there.
+     * 
+     * @param topic Topic the event was written to
+     * @param event Delivered event
+     * @param sendStartNanos {@link System#nanoTime()} when the request carrying the event was sent
+     */
+    private void delivered(String topic, ExoquicEvent event, long sendStartNanos) {
+        ackTracker.ack(event.getSequence(), event.getLsn());
+        freshness.recordDelivered(topic, event.getCommitTimeMs(), event.getCapturedNanos(), sendStartNanos);
+    }
+    
+    /**
+     * Parses a Debezium change event into a {@link ChangeRecord}. The event value and key are each
+     * read exactly once here, and the resulting record is passed through the rest of the pipeline.
+     * 
+     * @param captured Captured change event
+     * @return Parsed change record, or null if the event could not be parsed
+     */
+    ChangeRecord parseEvent(CapturedEvent<ChangeEvent<String, String>> captured) {
+        ChangeEvent<String, String> event = captured.getEvent();
         if (event == null || event.value() == null) {
             logger.debug("Skipping null event or event with null value");
-            return false;
+            filteredNoValue.increment();
+            ackTracker.ack(captured.getSequence(), -1);
+            return null;
         }
         
         try {
-            JSONObject jsonValue = JSON.parseObject(event.value());
-            
-            // Check if this is a schema change event (DDL)
-            if (jsonValue.containsKey("schema") && jsonValue.containsKey("payload")) {
-                JSONObject payload = jsonValue.getJSONObject("payload");
-                if (payload.containsKey("ddl")) {
-                    logger.debug("Skipping DDL event");
-                    return false;
-                }
-                
-                if (payload.isEmpty()) {
-                    logger.debug("Skipping event with empty payload");
-                    return false;
-                }
-                
-                return true;
+            byte[] key = event.key() != null ? event.key().getBytes(StandardCharsets.UTF_8) : null;
+            ChangeRecord record = envelopeReader.read(captured.getSequence(), captured.getCapturedNanos(), event.value().getBytes(StandardCharsets.UTF_8), key);
+            if (record == null) {
+                logger.debug("Skipping event with invalid JSON structure");
+                filteredUnparseable.increment();
+                ackTracker.ack(captured.getSequence(), -1);
             }
-            
-            logger.debug("Skipping event with invalid JSON structure");
-            return false;
+            return record;
+        } catch (Exception e) {
+            logger.warn("Error parsing event: {}", e.getMessage(), e);
+            filteredUnparseable.increment();
+            ackTracker.ack(captured.getSequence(), -1);
+            return null;
+        }
+    }
+    
+    /**
+     * Reads a Connect change event into a {@link ChangeRecord}.
+     * 
+     * @param captured Captured Connect change event
+     * @return Parsed change record, or null if the event could not be read
+     */
+    private ChangeRecord readSourceRecord(CapturedEvent<RecordChangeEvent<SourceRecord>> captured) {
+        RecordChangeEvent<SourceRecord> event = captured.getEvent();
+        if (event == null || event.record() == null || event.record().value() == null) {
+            logger.debug("Skipping null event or event with null value");
+            filteredNoValue.increment();
+            ackTracker.ack(captured.getSequence(), -1);
+            return null;
+        }
+        
+        try {
+            ChangeRecord record = sourceRecordReader.read(captured.getSequence(), captured.getCapturedNanos(), event.record());
+            if (record == null) {
+                logger.debug("Skipping event with invalid record structure");
+                filteredUnparseable.increment();
+                ackTracker.ack(captured.getSequence(), -1);
+            }
+            return record;
         } catch (Exception e) {
-            logger.warn("Error checking event validity: {}", e.getMessage(), e);
+            logger.warn("Error reading event: {}", e.getMessage(), e);
+            filteredUnparseable.increment();
+            ackTracker.ack(captured.getSequence(), -1);
+            return null;
+        }
+    }
+    
+    /**
+     * Checks if a record is valid for processing.
+     * 
+     * @param record Parsed change record
+     * @return true if the record is valid, false otherwise
+     */
+    boolean isValidEvent(ChangeRecord record) {
+        // Check if this is a schema change event (DDL)
+        if (record.isSchemaChange()) {
+            logger.debug("Skipping DDL event");
+            if (record.getDatabase() != null && record.getSchema() != null && record.getTable() != null) {
+                tableMetadata.invalidate(record.getDatabase(), record.getSchema(), record.getTable());
+            }
+            filteredSchemaChange.increment();
+            return false;
+        }
+        
+        // Rows of the signal table are Debezium's snapshot requests and watermarks, not data
+        if (isSignal(record)) {
+            filteredSignal.increment();
+            return false;
+        }
+        
+        if (record.isEmpty()) {
+            logger.debug("Skipping event with empty payload");
+            filteredEmpty.increment();
             return false;
         }
+        
+        return true;
+    }
+    
+    /**
+     * Checks if a record is a change of the signal table.
+     * 
+     * @param record Parsed change record
+     * @return true if signals are enabled and the record belongs to the signal table
+     */
+    private boolean isSignal(ChangeRecord record) {
+        return config.isSignalsEnabled() && config.getSignalTable().equals(record.getTable())
+                && config.getDbSchema().equals(record.getSchema());
+    }
+    
+    /**
+     * Looks up the cached metadata of the change record's table.
+     * 
+     * @param record Parsed change record
+     * @return Table metadata, or null if the record does not name its table
+     */
+    private TableMetadata getTableMetadata(ChangeRecord record) {
+        if (record.getDatabase() == null || record.getSchema() == null || record.getTable() == null) {
+            return null;
+        }
+        return tableMetadata.get(record.getDatabase(), record.getSchema(), record.getTable());
     }
     
     /**
-     * Extracts the topic name from the change event.
+     * Resolves the topic name of the change record.
      * Format: [database name].[schema].[table]
      * 
-     * @param event Change event
+     * @param record Parsed change record
      * @return Topic name in the format [database name].[schema].[table]
      */
-    private String getTopicName(ChangeEvent<String, String> event) {
-        try {
-            // Parse the JSON string
-            JSONObject jsonValue = JSON.parseObject(event.value());
-            JSONObject payload = jsonValue.getJSONObject("payload");
-            JSONObject source = payload.getJSONObject("source");
-            
-            String dbName = source.getString("db");
-            String schema = source.getString("schema");
-            String table = source.getString("table");
-            
-            // Construct topic name in the format [database name].[schema].[table]
-            String topicName = String.format("%s.%s.%s", dbName, schema, table);
-            logger.debug("Extracted topic name: {}", topicName);
-            return topicName;
-        } catch (Exception e) {
-            // If there's an error extracting the topic name, use the database name as the default
-            logger.warn("Error extracting topic name from event: {}", e.getMessage(), e);
+    String getTopicName(ChangeRecord record) {
+        return getTopicName(getTableMetadata(record));
+    }
+    
+    private String getTopicName(TableMetadata table) {
+        if (table == null) {
+            // If the source is incomplete, use the database name as the default
+            logger.warn("Missing source information in event, using database name as topic");
             return config.getDbName();
         }
+        return table.getTopic();
     }
     
     /**
-     * For composite keys, sort field names and concatenate values
+     * Extracts the primary key from the parsed key fields.
      * 
-     * @param payload JSONObject containing the primary key fields
-     * @return Concatenated primary key values in sorted field order
+     * @param record Parsed change record
+     * @return Primary key as a string
      */
-    private String formatCompositeKey(JSONObject payload) {
-        // Get all key names and sort them
-        List<String> sortedKeys = new ArrayList<>(payload.keySet());
-        Collections.sort(sortedKeys);
+    String extractPrimaryKey(ChangeRecord record) {
+        return extractPrimaryKey(record, getTableMetadata(record));
+    }
+    
+    private String extractPrimaryKey(ChangeRecord record, TableMetadata table) {
+        String[] names = record.getKeyNames();
+        if (names == null || names.length == 0) {
+            logger.warn("Key payload is null or empty");
+            return "unknown-key";
+        }
         
-        // Build the composite key by concatenating values in sorted key order
-        StringBuilder sb = new StringBuilder();
-        for (String key : sortedKeys) {
-            if (sb.length() > 0) {
-                sb.append(":");
-            }
-            sb.append(payload.get(key));
+        // For a single primary key, we can just return the value
+        // For composite keys, sort fields by name and concatenate values
+        if (names.length == 1) {
+            return record.getKeyValues()[0];
+        } else if (table != null) {
+            return table.formatKey(names, record.getKeyValues());
+        } else {
+            return TableMetadataCache.formatCompositeKey(names, record.getKeyValues());
         }
-        return sb.toString();
     }
     
     /**
-     * Extracts the primary key from the event key.
+     * Writes a batch into a single Kafka REST produce request and sends it. While earlier requests
+     * are spilled, the request is spilled behind them instead.
+     * <p>
+     * The outcome decides what happens to the events: written events are acknowledged, and events
+     * Exoquic rejects are dead-lettered, as sending them again cannot succeed. Events
+     * that failed with a retriable error are sent again on their own, and spilled once retries are
+     * exhausted. A request that is too large is split in halves that are sent separately. Events
+     * that can be neither delivered nor spilled, or that were refused because the agent's
+     * credentials are rejected, are logged and left unacknowledged.
      * 
-     * @param event Change event
-     * @return Primary key as a string
+     * @param batch Events for one topic
+     * @return Mono that completes when the batch is sent, spilled or has failed
      */
-    private String extractPrimaryKey(ChangeEvent<String, String> event) {
-        try {
-            if (event.key() == null) {
-                logger.warn("Event key is null, cannot extract primary key");
-                return "unknown-key";
+    private Mono<Void> sendBatch(ProduceBatch batch) {
+        return sendBatch(batch, 1);
+    }
+    
+    private Mono<Void> sendBatch(ProduceBatch batch, int attempt) {
+        return Mono.defer(() -> {
+            ByteBuf body = writeBatch(batch);
+            if (body == null) {
+                return Mono.empty();
             }
             
-            // Parse the key JSON
-            JSONObject keyJson = JSON.parseObject(event.key());
-            
-            // Extract the payload which contains the primary key values
-            JSONObject payload = keyJson.getJSONObject("payload");
-            if (payload == null || payload.isEmpty()) {
-                logger.warn("Key payload is null or empty");
-                return "unknown-key";
+            Mono<Boolean> spilled = spillQueue != null ? spillQueue.offerIfSpilling(laneOf(batch), batch.getTopic(), body) : Mono.just(false);
+            return spilled
+                    .flatMap(isSpilled -> {
+                        if (isSpilled) {
+                            acknowledge(batch);
+                            return Mono.<Void>empty();
+                        }
+                        return send(batch, body, attempt);
+                    })
+                    .doFinally(signal -> body.release());
+        });
+    }
+    
+    private Mono<Void> send(ProduceBatch batch, ByteBuf body, int attempt) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending batch of {} events to topic {} ({} bytes)", batch.size(), batch.getTopic(), body.readableBytes());
+        }
+        long sendStart = System.nanoTime();
+        return httpClient.sendEvent(body.retain(), batch.getTopic())
+                .flatMap(response -> handleResponse(batch, response, attempt, sendStart))
+                .onErrorResume(e -> handleFailure(batch, body, e));
+    }
+    
+    private ByteBuf writeBatch(ProduceBatch batch) {
+        try {
+            return envelopeWriter.write(batch);
+        } catch (Exception e) {
+            logger.error("Error writing batch of {} events for topic {}: {}", batch.size(), batch.getTopic(), e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Acknowledges the written and rejected events of an accepted request, and sends the events
+     * that failed with a retriable error again.
+     * 
+     * @param batch Batch the request carried
+     * @param response Per-record results of the request
+     * @param attempt Number of times these events have been sent
+     * @param sendStart {@link System#nanoTime()} when the request was sent
+     * @return Mono that completes when every event of the batch is handled
+     */
+    private Mono<Void> handleResponse(ProduceBatch batch, ProduceResponse response, int attempt, long sendStart) {
+        List<ExoquicEvent> events = batch.getEvents();
+        if (response.getFailedCount() == 0) {
+            for (ExoquicEvent event : events) {
+                delivered(batch.getTopic(), event, sendStart);
             }
-            
-            // For a single primary key, we can just return the first value
-            // For composite keys, sort fields by name and concatenate values
-            if (payload.size() == 1) {
-                // Get the first (and only) value
-                return String.valueOf(payload.values().iterator().next());
+            return Mono.empty();
+        }
+        
+        List<ExoquicEvent> retriable = new ArrayList<>();
+        int retriableSize = 0;
+        for (int i = 0; i < events.size(); i++) {
+            ExoquicEvent event = events.get(i);
+            if (!response.isFailed(i)) {
+                delivered(batch.getTopic(), event, sendStart);
+            } else if (response.isRetriable(i)) {
+                retriable.add(event);
+                retriableSize += event.estimatedSize();
             } else {
-                // For composite keys, sort and concatenate
-                return formatCompositeKey(payload);
+                String error = "error " + response.getErrorCode(i) + ": " + response.getError(i);
+                logger.error("Event with key {} (LSN {}) was rejected by topic {} with {}",
+                        event.getKey(), event.getLsn(), batch.getTopic(), error);
+                deadLetter(batch.getTopic(), event, error);
             }
-        } catch (Exception e) {
-            logger.warn("Error extracting primary key: {}", e.getMessage(), e);
-            return "error-key";
         }
+        if (retriable.isEmpty()) {
+            return Mono.empty();
+        }
+        
+        ProduceBatch failed = new ProduceBatch(batch.getTopic(), retriable, retriableSize);
+        if (attempt < config.getMaxRetries() && httpClient.getRetryBudget().tryAcquire()) {
+            Duration delay = httpClient.getRetryDelay(attempt);
+            logger.warn("{} of {} events for topic {} were not written, sending them again in {} ms",
+                    failed.size(), batch.size(), batch.getTopic(), delay.toMillis());
+            recordRetries.add(failed.size());
+            return Mono.delay(delay).then(sendBatch(failed, attempt + 1));
+        }
+        
+        ByteBuf body = writeBatch(failed);
+        if (body == null) {
+            return Mono.empty();
+        }
+        return spillOrHold(failed, body)
+                .doFinally(signal -> body.release());
     }
     
     /**
-     * Transforms a Debezium change event into the Exoquic database log format '{"type": "created|deleted|updated", "data": {...}}'
+     * Handles a request that failed as a whole, according to its {@link ProduceFailure} class.
      * 
-     * @param event Change event
-     * @return Mono with the JSON payload
+     * @param batch Batch the request carried
+     * @param body Request body, which stays owned by the caller
+     * @param e Failure of the request
+     * @return Mono that completes when every event of the batch is handled
      */
-    private Mono<String> transformEvent(ChangeEvent<String, String> event) {
-        return Mono.fromCallable(() -> {
-            try {
-                // Parse the JSON string
-                JSONObject jsonValue = JSON.parseObject(event.value());
-                JSONObject payload = jsonValue.getJSONObject("payload");
-                
-                // Extract operation type and data
-                String op = payload.getString("op");
-                JSONObject after = payload.getJSONObject("after");
-                JSONObject before = payload.getJSONObject("before");
-                
-                // Determine event type and data
-                ChangeEventType type;
-                JSONObject data;
-
-                switch (op) {
-                    case "c" -> { // Create
-                        type = ChangeEventType.CREATED;
-                        data = after;
-                    }
-                    case "u" -> { // Update
-                        type = ChangeEventType.UPDATED;
-                        data = after;
-                    }
-                    case "d" -> { // Delete
-                        type = ChangeEventType.REMOVED;
-                        data = before;
+    private Mono<Void> handleFailure(ProduceBatch batch, ByteBuf body, Throwable e) {
+        switch (ProduceFailure.classify(e)) {
+            case TOO_LARGE -> {
+                if (batch.size() > 1) {
+                    List<ExoquicEvent> events = batch.getEvents();
+                    int half = events.size() / 2;
+                    logger.warn("Request of {} events for topic {} is too large, splitting it", batch.size(), batch.getTopic());
+                    return sendBatch(subBatch(batch, 0, half))
+                            .then(sendBatch(subBatch(batch, half, events.size())));
+                }
+                ExoquicEvent event = batch.getEvents().get(0);
+                logger.error("Event with key {} (LSN {}) is too large for topic {} ({} bytes)",
+                        event.getKey(), event.getLsn(), batch.getTopic(), body.readableBytes());
+                deadLetter(batch.getTopic(), event, describe(e));
+            }
+            case REJECTED -> {
+                String error = describe(e);
+                logger.error("Batch of {} events for topic {} was rejected: {}", batch.size(), batch.getTopic(), error);
+                for (ExoquicEvent event : batch.getEvents()) {
+                    deadLetter(batch.getTopic(), event, error);
+                }
+            }
+            case UNAUTHORIZED -> logger.error("Batch of {} events for topic {} was refused: {}; check EXOQUIC_API_KEY. "
+                            + "Offsets stay at sequence {} (LSN {})", batch.size(), batch.getTopic(), describe(e),
+                    ackTracker.getCommittedSequence(), ackTracker.getCommittedLsn());
+            case RETRIABLE -> {
+                return spillOrHold(batch, body);
+            }
+        }
+        return Mono.empty();
+    }
+    
+    /**
+     * Spills a batch that could not be delivered, or leaves it unacknowledged if it cannot be spilled.
+     * 
+     * @param batch Undelivered batch
+     * @param body Request body of the batch, which is not consumed or released
+     * @return Mono that completes when the batch is spilled or left unacknowledged
+     */
+    private Mono<Void> spillOrHold(ProduceBatch batch, ByteBuf body) {
+        Mono<Boolean> spilled = spillQueue != null ? spillQueue.offer(laneOf(batch), batch.getTopic(), body) : Mono.just(false);
+        return spilled
+                .doOnNext(isSpilled -> {
+                    if (isSpilled) {
+                        acknowledge(batch);
+                    } else {
+                        logger.error("Batch of {} events for topic {} was not delivered; offsets stay at sequence {} (LSN {})",
+                                batch.size(), batch.getTopic(), ackTracker.getCommittedSequence(), ackTracker.getCommittedLsn());
                     }
-                    default -> {
-                        // Skip other operations
-                        logger.debug("Skipping unsupported operation: {}", op);
-                        return null;
+                })
+                .then();
+    }
+    
+    /**
+     * Gets the lane a batch was dispatched through. All events of a batch share one lane.
+     *
+     * @param batch Batch
+     * @return Lane index
+     */
+    private int laneOf(ProduceBatch batch) {
+        return lanes.laneOf(batch.getEvents().get(0));
+    }
+    
+    /**
+     * Writes an event that Exoquic rejected for good to the dead-letter queue, and acknowledges it
+     * once it is written. Without a dead-letter queue, or when it is full, the event is dropped.
+     * 
+     * @param topicName Topic the event was produced to
+     * @param event Rejected event
+     * @param error Reason the event was rejected
+     */
+    private void deadLetter(String topicName, ExoquicEvent event, String error) {
+        Runnable ack = () -> ackTracker.ack(event.getSequence(), event.getLsn());
+        if (deadLetters != null) {
+            ByteBuf body = writeBatch(new ProduceBatch(topicName, List.of(event), event.estimatedSize()));
+            if (body != null) {
+                try {
+                    if (deadLetters.offer(topicName, event.getKey(), event.getLsn(), 1, error, body, ack)) {
+                        return;
                     }
+                } finally {
+                    body.release();
+                }
+            }
+        }
+        logger.error("Event with key {} (LSN {}) for topic {} was dropped", event.getKey(), event.getLsn(), topicName);
+        ack.run();
+    }
+    
+    private static ProduceBatch subBatch(ProduceBatch batch, int from, int to) {
+        List<ExoquicEvent> events = batch.getEvents().subList(from, to);
+        int size = 0;
+        for (ExoquicEvent event : events) {
+            size += event.estimatedSize();
+        }
+        return new ProduceBatch(batch.getTopic(), events, size);
+    }
+    
+    private static String describe(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            return response.getStatusCode().value() + " " + response.getResponseBodyAsString();
+        }
+        return e.getMessage();
+    }
+    
+    /**
+     * Transforms a change record into an event whose value is in the Exoquic database log format
+     * '{"type": "created|deleted|updated", "data": {...}}'. The primary key is used as the record key
+     * and as the channel.
+     * 
+     * @param record Parsed change record
+     * @return Event ready to be produced, or null if the record should be skipped
+     */
+    ExoquicEvent transformEvent(ChangeRecord record) {
+        try {
+            String op = record.getOperation();
+            
+            // Determine event type and data
+            ChangeEventType type;
+            RowImage data;
+
+            switch (op == null ? "" : op) {
+                case "c", "r" -> { // Create, or read by the snapshot
+                    type = ChangeEventType.CREATED;
+                    data = record.getAfter();
+                }
+                case "u" -> { // Update
+                    type = ChangeEventType.UPDATED;
+                    data = record.getAfter();
+                }
+                case "d" -> { // Delete
+                    type = ChangeEventType.REMOVED;
+                    data = record.getBefore();
                 }
-                
-                if (data == null || data.isEmpty()) {
-                    logger.warn("Skipping event with null or empty data");
+                default -> {
+                    // Skip other operations
+                    logger.debug("Skipping unsupported operation: {}", op);
+                    filteredOperation.increment();
                     return null;
                 }
-                
-                // Create the event payload
-                JSONObject exoquicPayload = new JSONObject();
-                exoquicPayload.put("type", type.getValue());
-                exoquicPayload.put("data", data);
-                
-                String jsonPayload = JSON.toJSONString(exoquicPayload);
-                logger.debug("Transformed event: {}", jsonPayload);
-                return jsonPayload;
-            } catch (Exception e) {
-                logger.error("Error transforming event: {}", e.getMessage(), e);
+            }
+            
+            if (data == null || data.isEmpty()) {
+                logger.warn("Skipping event with null or empty data");
+                filteredNoData.increment();
                 return null;
             }
-        })
-        .filter(Objects::nonNull);
+            
+            // Retrieve the primary key, which is used as the event key and the channel.
+            TableMetadata table = getTableMetadata(record);
+            String primaryKey = extractPrimaryKey(record, table);
+            
+            // The topic name is [database].[schema].[table name]
+            ExoquicEvent event = new ExoquicEvent(record.getSequence(), record.getLsn(),
+                    getTopicName(table), primaryKey, type, data, record.getCommitTimeMs(), record.getCapturedNanos());
+            if ("r".equals(op)) {
+                snapshotProgress.recordRow(event.getTopic());
+            }
+            if (sampledLogger.sample()) {
+                sampledLogger.debug("Transformed {} event for topic {} and key {}", type.getValue(), event.getTopic(), primaryKey);
+            }
+            return event;
+        } catch (Exception e) {
+            logger.error("Error transforming event: {}", e.getMessage(), e);
+            filteredTransformError.increment();
+            return null;
+        }
     }
 }
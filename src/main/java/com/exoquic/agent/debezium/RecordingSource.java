@@ -0,0 +1,178 @@
+package com.exoquic.agent.debezium;
+
+import com.github.luben.zstd.ZstdInputStream;
+import io.debezium.engine.ChangeEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recording made by {@link EventRecorder}, at the recorded pace, faster by a factor, or
+ * as fast as the pipeline takes the events.
+ * <p>
+ * Events are handed over in batches of up to the configured size, each once its recorded arrival
+ * time has come; sessions of several runs are replayed back to back. A recording that ends with
+ * an incomplete entry, as after a crash, is replayed up to that entry.
+ */
+public class RecordingSource implements ChangeEventSource<ChangeEvent<String, String>> {
+    private static final Logger logger = LogManager.getLogger(RecordingSource.class);
+
+    private final Path file;
+    private final double speed;
+    private final int batchSize;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new RecordingSource.
+     *
+     * @param file Recording path
+     * @param speed Factor to speed up the recorded pace by, or 0 to replay as fast as possible
+     * @param batchSize Maximum number of events handed over at a time
+     */
+    public RecordingSource(Path file, double speed, int batchSize) {
+        this.file = file;
+        this.speed = speed;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(BatchConsumer<ChangeEvent<String, String>> consumer) throws IOException, InterruptedException {
+        logger.info("Replaying change events from {} at {}", file, speed > 0 ? speed + "x speed" : "maximum speed");
+        long start = System.nanoTime();
+        long replayed = 0;
+        // Offset of the current session from the start of the recording, and of the last event
+        long sessionOffset = 0;
+        long lastOffset = 0;
+        List<ChangeEvent<String, String>> batch = new ArrayList<>(batchSize);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ZstdInputStream(Files.newInputStream(file)), 64 * 1024))) {
+            while (!closed) {
+                int tag = in.read();
+                if (tag == -1) {
+                    break;
+                }
+                if (tag == EventRecorder.SESSION) {
+                    readSessionHeader(in);
+                    sessionOffset = lastOffset;
+                    continue;
+                }
+                if (tag != EventRecorder.EVENT) {
+                    throw new IOException("Unknown entry " + tag + " in recording " + file);
+                }
+
+                long offset = sessionOffset + in.readLong();
+                String destination = in.readUTF();
+                String key = readString(in);
+                String value = readString(in);
+                lastOffset = offset;
+
+                if (speed > 0) {
+                    long due = start + (long) (offset / speed);
+                    if (due > System.nanoTime() && !batch.isEmpty()) {
+                        replayed += handOver(consumer, batch);
+                    }
+                    long wait;
+                    while (!closed && (wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                batch.add(new RecordedChangeEvent(destination, key, value));
+                if (batch.size() >= batchSize) {
+                    replayed += handOver(consumer, batch);
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("Recording {} ends with an incomplete entry", file);
+        } catch (IOException e) {
+            // zstd reports a truncated last frame as a plain IOException
+            if (replayed == 0 && batch.isEmpty()) {
+                throw e;
+            }
+            logger.warn("Recording {} could not be read to the end: {}", file, e.getMessage());
+        }
+        if (!batch.isEmpty() && !closed) {
+            replayed += handOver(consumer, batch);
+        }
+
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        logger.info("Replayed {} change events in {} ms ({} events/s)", replayed,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), replayed * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
+    private void readSessionHeader(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != EventRecorder.MAGIC || version != EventRecorder.VERSION) {
+            throw new IOException(file + " is not a change event recording of version " + EventRecorder.VERSION);
+        }
+        long startedAt = in.readLong();
+        logger.debug("Recording session started at {}", startedAt);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int handOver(BatchConsumer<ChangeEvent<String, String>> consumer,
+                                List<ChangeEvent<String, String>> batch) throws InterruptedException {
+        int size = batch.size();
+        consumer.accept(new ArrayList<>(batch));
+        batch.clear();
+        return size;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static final class RecordedChangeEvent implements ChangeEvent<String, String> {
+        private final String destination;
+        private final String key;
+        private final String value;
+
+        private RecordedChangeEvent(String destination, String key, String value) {
+            this.destination = destination;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public String value() {
+            return value;
+        }
+
+        @Override
+        public String destination() {
+            return destination;
+        }
+
+        @Override
+        public String toString() {
+            return "RecordedChangeEvent [key=" + key + ", destination=" + destination + "]";
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.exoquic.agent.debezium;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-table cache of compiled row encoders.
+ * <p>
+ * The row schema of a table is captured the first time an event for it is seen and compiled into
+ * a {@link StructEncoder}. Later events for the same table reuse that encoder as long as their
+ * schema is unchanged. When Debezium reports a different schema for the table, for example after
+ * a column was added, the entry is replaced and its version incremented.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class SchemaCache {
+    private static final Logger logger = LogManager.getLogger(SchemaCache.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final StructJsonWriter writer;
+
+    /**
+     * Creates a new SchemaCache.
+     *
+     * @param writer Writer used by the compiled encoders for values without a specialised encoding
+     */
+    public SchemaCache(StructJsonWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Gets the encoder for a table's row schema, compiling it if the table is new or its schema changed.
+     *
+     * @param table Table identifier, such as the Debezium topic name
+     * @param schema Row schema carried by the current event
+     * @return Encoder for the schema
+     */
+    public StructEncoder encoderFor(String table, Schema schema) {
+        Entry entry = entries.get(table);
+        // Debezium reuses the same schema instance for every event until the table changes,
+        // so the identity check is the common case and the equality check is the fallback.
+        if (entry != null && (entry.encoder.getSchema() == schema || entry.encoder.getSchema().equals(schema))) {
+            return entry.encoder;
+        }
+        return entries.compute(table, (key, current) -> {
+            if (current != null && current.encoder.getSchema().equals(schema)) {
+                return current;
+            }
+            int version = current == null ? 1 : current.version + 1;
+            if (current != null) {
+                logger.info("Row schema of table {} changed, compiling encoder version {}", table, version);
+            } else {
+                logger.debug("Compiling row encoder for table {}", table);
+            }
+            return new Entry(new StructEncoder(schema, writer), version);
+        }).encoder;
+    }
+
+    /**
+     * Drops the cached encoder of a table, for example after a schema change event for it.
+     *
+     * @param table Table identifier
+     */
+    public void invalidate(String table) {
+        if (entries.remove(table) != null) {
+            logger.info("Invalidated cached row schema of table {}", table);
+        }
+    }
+
+    /**
+     * Gets the schema version of a table, counting from 1 each time a new schema is captured.
+     *
+     * @param table Table identifier
+     * @return Schema version, or 0 if the table is not cached
+     */
+    public int getVersion(String table) {
+        Entry entry = entries.get(table);
+        return entry != null ? entry.version : 0;
+    }
+
+    /**
+     * Gets the number of cached tables.
+     *
+     * @return Number of cached tables
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private record Entry(StructEncoder encoder, int version) {
+    }
+}
@@ -0,0 +1,173 @@
+package com.exoquic.agent.debezium;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import com.exoquic.agent.config.AgentConfig;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.http.server.HttpServerRoutes;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Requests incremental snapshots from Debezium by inserting signals into the signal table.
+ * <p>
+ * An incremental snapshot reads a table in chunks of primary key ranges while changes keep
+ * streaming. Around each chunk Debezium writes watermarks to the signal table; rows of the chunk
+ * that change before the closing watermark are dropped from it, because the streamed change
+ * carries their newer state. Tables are snapshotted one after the other, and live events of other
+ * tables are not held back.
+ * <p>
+ * Signals can be sent through the admin API, served next to the metrics:
+ * <ul>
+ *   <li>{@code POST /snapshots} with {@code {"tables": ["public.orders"]}} starts a snapshot of
+ *       the tables; names without a schema are in the captured schema</li>
+ *   <li>{@code DELETE /snapshots} with the same body stops the snapshot of the tables, or of all
+ *       tables without a body</li>
+ * </ul>
+ * Both answer {@code 202 Accepted} with the id of the signal once it is stored. The same signals
+ * can be inserted into the signal table directly.
+ */
+public class SnapshotSignals {
+    private static final Logger logger = LogManager.getLogger(SnapshotSignals.class);
+
+    private final AgentConfig config;
+    private final String insertSignal;
+
+    /**
+     * Creates a new SnapshotSignals.
+     *
+     * @param config Agent configuration
+     */
+    public SnapshotSignals(AgentConfig config) {
+        this.config = config;
+        this.insertSignal = "INSERT INTO " + config.getDbSchema() + "." + config.getSignalTable()
+                + " (id, type, data) VALUES (?, ?, ?)";
+    }
+
+    /**
+     * Requests an incremental snapshot of tables.
+     *
+     * @param tables Tables as [schema].[table], or [table] in the captured schema
+     * @return Id of the signal
+     * @throws SQLException if the signal cannot be stored
+     */
+    public String executeSnapshot(List<String> tables) throws SQLException {
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("No tables to snapshot");
+        }
+        return signal("execute-snapshot", tables);
+    }
+
+    /**
+     * Stops incremental snapshots of tables.
+     *
+     * @param tables Tables as [schema].[table], or [table] in the captured schema; empty for all
+     * @return Id of the signal
+     * @throws SQLException if the signal cannot be stored
+     */
+    public String stopSnapshot(List<String> tables) throws SQLException {
+        return signal("stop-snapshot", tables);
+    }
+
+    private String signal(String type, List<String> tables) throws SQLException {
+        JSONObject data = new JSONObject();
+        if (!tables.isEmpty()) {
+            JSONArray collections = new JSONArray();
+            for (String table : tables) {
+                collections.add(table.contains(".") ? table : config.getDbSchema() + "." + table);
+            }
+            data.put("data-collections", collections);
+        }
+        data.put("type", "incremental");
+
+        String id = UUID.randomUUID().toString();
+        String url = String.format("jdbc:postgresql://%s:%d/%s", config.getDbHost(), config.getDbPort(), config.getDbName());
+        try (Connection conn = DriverManager.getConnection(url, config.getDbUser(), config.getDbPassword());
+             PreparedStatement stmt = conn.prepareStatement(insertSignal)) {
+            stmt.setString(1, id);
+            stmt.setString(2, type);
+            stmt.setString(3, data.toJSONString());
+            stmt.executeUpdate();
+        }
+        logger.info("Sent {} signal {}: {}", type, id, data);
+        return id;
+    }
+
+    /**
+     * Adds the admin API routes.
+     *
+     * @param routes Routes of the server to serve the API on
+     */
+    public void addRoutes(HttpServerRoutes routes) {
+        routes.post("/snapshots", (request, response) -> request.receive().aggregate()
+                .asString(StandardCharsets.UTF_8)
+                .defaultIfEmpty("")
+                .flatMap(body -> handle(response, () -> executeSnapshot(parseTables(body)))));
+        routes.delete("/snapshots", (request, response) -> request.receive().aggregate()
+                .asString(StandardCharsets.UTF_8)
+                .defaultIfEmpty("")
+                .flatMap(body -> handle(response, () -> stopSnapshot(parseTables(body)))));
+    }
+
+    private Mono<Void> handle(HttpServerResponse response, SignalCall call) {
+        return Mono.fromCallable(call::send)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(id -> respond(response, HttpResponseStatus.ACCEPTED, new JSONObject().fluentPut("id", id)))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        respond(response, HttpResponseStatus.BAD_REQUEST, new JSONObject().fluentPut("error", e.getMessage())))
+                .onErrorResume(SQLException.class, e -> {
+                    logger.error("Failed to store snapshot signal", e);
+                    return respond(response, HttpResponseStatus.SERVICE_UNAVAILABLE,
+                            new JSONObject().fluentPut("error", "Could not store the signal: " + e.getMessage()));
+                });
+    }
+
+    private static Mono<Void> respond(HttpServerResponse response, HttpResponseStatus status, JSONObject body) {
+        return response.status(status)
+                .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .sendString(Mono.just(body.toJSONString()))
+                .then();
+    }
+
+    private static List<String> parseTables(String body) {
+        List<String> tables = new ArrayList<>();
+        if (body.isBlank()) {
+            return tables;
+        }
+        try {
+            JSONObject object = JSON.parseObject(body);
+            JSONArray array = object == null ? null : object.getJSONArray("tables");
+            if (array != null) {
+                for (Object table : array) {
+                    if (!(table instanceof String name) || name.isBlank()) {
+                        throw new IllegalArgumentException("Table names must be non-empty strings");
+                    }
+                    tables.add(name);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Expected a JSON body like {\"tables\": [\"public.orders\"]}");
+        }
+        return tables;
+    }
+
+    @FunctionalInterface
+    private interface SignalCall {
+        String send() throws SQLException;
+    }
+}
@@ -0,0 +1,103 @@
+package com.exoquic.agent.debezium;
+
+import com.exoquic.agent.model.ChangeRecord;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.util.List;
+
+/**
+ * Reads Debezium change events captured as Kafka Connect {@link SourceRecord}s.
+ * <p>
+ * The envelope fields are read straight from the value {@link Struct}, and the row images are
+ * kept as Structs to be encoded when the request body is written, using the table's encoder from
+ * the {@link SchemaCache}. This path never renders the event to a JSON String, so there is nothing
+ * to parse back.
+ * <p>
+ * Instances are stateless and thread-safe.
+ */
+public class SourceRecordReader {
+    private final StructJsonWriter writer;
+    private final SchemaCache schemaCache;
+
+    /**
+     * Creates a new SourceRecordReader.
+     *
+     * @param writer Writer used to encode key values
+     * @param schemaCache Cache of compiled row encoders per table
+     */
+    public SourceRecordReader(StructJsonWriter writer, SchemaCache schemaCache) {
+        this.writer = writer;
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Reads a Debezium change event envelope.
+     *
+     * @param sequence Capture sequence number of the event
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the event over
+     * @param record Source record emitted by the connector
+     * @return Parsed change record, or null if the value is not a Debezium envelope
+     */
+    public ChangeRecord read(long sequence, long capturedNanos, SourceRecord record) {
+        if (!(record.value() instanceof Struct value)) {
+            return null;
+        }
+
+        Schema valueSchema = value.schema();
+        String operation = optionalString(value, valueSchema, "op");
+        String ddl = optionalString(value, valueSchema, "ddl");
+        if (ddl != null) {
+            schemaCache.invalidate(record.topic());
+        }
+
+        String database = null;
+        String schema = null;
+        String table = null;
+        long lsn = -1;
+        long commitTimeMs = -1;
+        if (valueSchema.field("source") != null && value.get("source") instanceof Struct source) {
+            database = optionalString(source, source.schema(), "db");
+            schema = optionalString(source, source.schema(), "schema");
+            table = optionalString(source, source.schema(), "table");
+            if (source.schema().field("lsn") != null && source.get("lsn") instanceof Long sourceLsn) {
+                lsn = sourceLsn;
+            }
+            if (source.schema().field("ts_ms") != null && source.get("ts_ms") instanceof Long sourceTsMs) {
+                commitTimeMs = sourceTsMs;
+            }
+        }
+
+        String[] keyNames = null;
+        String[] keyValues = null;
+        if (record.key() instanceof Struct key) {
+            List<Field> fields = key.schema().fields();
+            keyNames = new String[fields.size()];
+            keyValues = new String[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                keyNames[i] = field.name();
+                keyValues[i] = writer.toKeyString(field.schema(), key.get(field));
+            }
+        }
+
+        return new ChangeRecord(sequence, lsn, commitTimeMs, capturedNanos, operation, database, schema, table, ddl,
+                rowImage(record.topic(), value, valueSchema, "before"),
+                rowImage(record.topic(), value, valueSchema, "after"),
+                keyNames, keyValues);
+    }
+
+    private StructRowImage rowImage(String topic, Struct value, Schema valueSchema, String fieldName) {
+        if (valueSchema.field(fieldName) == null) {
+            return null;
+        }
+        Struct row = value.getStruct(fieldName);
+        return row != null ? new StructRowImage(row, schemaCache.encoderFor(topic, row.schema())) : null;
+    }
+
+    private static String optionalString(Struct struct, Schema schema, String fieldName) {
+        return schema.field(fieldName) != null ? struct.getString(fieldName) : null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.exoquic.agent.debezium;
+
+import com.exoquic.agent.http.KafkaRestEnvelopeWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON encoder for structs of one specific Connect schema.
+ * <p>
+ * Compiling the schema up front resolves the field names to pre-encoded bytes and picks the
+ * encoding for each field once, so writing a row is a straight loop over its values. The output
+ * is identical to {@link StructJsonWriter#writeStruct(ByteBuf, Struct)}.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public class StructEncoder {
+    private final Schema schema;
+    private final Field[] fields;
+    /** For each field, the bytes preceding its value: the separator, the quoted name and the colon. */
+    private final byte[][] prefixes;
+    private final ValueEncoder[] encoders;
+
+    /**
+     * Compiles an encoder for a struct schema.
+     *
+     * @param schema Struct schema
+     * @param writer Writer used for values that have no specialised encoding
+     */
+    public StructEncoder(Schema schema, StructJsonWriter writer) {
+        List<Field> schemaFields = schema.fields();
+        this.schema = schema;
+        this.fields = schemaFields.toArray(new Field[0]);
+        this.prefixes = new byte[fields.length][];
+        this.encoders = new ValueEncoder[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            prefixes[i] = fieldPrefix(i == 0 ? '{' : ',', fields[i].name());
+            encoders[i] = compile(fields[i].schema(), writer);
+        }
+    }
+
+    /**
+     * Gets the schema this encoder was compiled for.
+     *
+     * @return Struct schema
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Gets the number of fields in the schema.
+     *
+     * @return Field count
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * Writes a struct as a JSON object.
+     *
+     * @param out Buffer to write to
+     * @param struct Struct to write; must have the schema this encoder was compiled for
+     */
+    public void write(ByteBuf out, Struct struct) {
+        if (fields.length == 0) {
+            out.writeByte('{');
+        }
+        for (int i = 0; i < fields.length; i++) {
+            out.writeBytes(prefixes[i]);
+            Object value = struct.get(fields[i]);
+            if (value == null) {
+                out.writeBytes(StructJsonWriter.NULL);
+            } else {
+                encoders[i].write(out, value);
+            }
+        }
+        out.writeByte('}');
+    }
+
+    /**
+     * Estimates the number of bytes {@link #write(ByteBuf, Struct)} writes for a struct, from the
+     * sizes of its values. Strings and binary values are measured; numbers and values of other
+     * types are assumed to take a typical size.
+     *
+     * @param struct Struct to measure; must have the schema this encoder was compiled for
+     * @return Estimated encoded size in bytes
+     */
+    public int estimateSize(Struct struct) {
+        int size = fields.length == 0 ? 2 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            size += prefixes[i].length + estimateValueSize(struct.get(fields[i]));
+        }
+        return size;
+    }
+
+    private static int estimateValueSize(Object value) {
+        if (value == null) {
+            return StructJsonWriter.NULL.length;
+        }
+        if (value instanceof String string) {
+            // Quotes, plus the UTF-8 length; escapes are rare enough to leave out
+            return ByteBufUtil.utf8Bytes(string) + 2;
+        }
+        if (value instanceof Struct struct) {
+            int size = 2;
+            for (Field field : struct.schema().fields()) {
+                size += field.name().length() + 4 + estimateValueSize(struct.get(field));
+            }
+            return size;
+        }
+        if (value instanceof byte[] bytes) {
+            return base64Size(bytes.length);
+        }
+        if (value instanceof ByteBuffer buffer) {
+            return base64Size(buffer.remaining());
+        }
+        if (value instanceof Collection<?> collection) {
+            int size = 2;
+            for (Object element : collection) {
+                size += estimateValueSize(element) + 1;
+            }
+            return size;
+        }
+        if (value instanceof Map<?, ?> map) {
+            int size = 2;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += estimateValueSize(String.valueOf(entry.getKey())) + estimateValueSize(entry.getValue()) + 2;
+            }
+            return size;
+        }
+        // Numbers, booleans, dates and decimals
+        return 20;
+    }
+
+    private static int base64Size(int length) {
+        return (length + 2) / 3 * 4 + 2;
+    }
+
+    private static ValueEncoder compile(Schema schema, StructJsonWriter writer) {
+        if (schema.name() != null) {
+            // Logical and semantic types go through the general writer, which knows their encodings
+            return (out, value) -> writer.writeValue(out, schema, value);
+        }
+        return switch (schema.type()) {
+            case INT8, INT16, INT32, INT64 ->
+                    (out, value) -> out.writeCharSequence(value.toString(), StandardCharsets.US_ASCII);
+            case BOOLEAN -> (out, value) -> out.writeBytes((Boolean) value ? StructJsonWriter.TRUE : StructJsonWriter.FALSE);
+            case STRING -> (out, value) -> KafkaRestEnvelopeWriter.writeJsonString(out, (String) value);
+            case STRUCT -> {
+                StructEncoder nested = new StructEncoder(schema, writer);
+                yield (out, value) -> nested.write(out, (Struct) value);
+            }
+            default -> (out, value) -> writer.writeValue(out, schema, value);
+        };
+    }
+
+    private static byte[] fieldPrefix(char separator, String name) {
+        ByteBuf buf = Unpooled.buffer(name.length() + 4);
+        buf.writeByte(separator);
+        KafkaRestEnvelopeWriter.writeJsonString(buf, name);
+        buf.writeByte(':');
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Encodes a non-null value of a known schema.
+     */
+    @FunctionalInterface
+    private interface ValueEncoder {
+        void write(ByteBuf out, Object value);
+    }
+}
@@ -0,0 +1,215 @@
+package com.exoquic.agent.debezium;
+
+import com.exoquic.agent.http.KafkaRestEnvelopeWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes Kafka Connect values as JSON directly into Netty buffers.
+ * <p>
+ * The output matches what Kafka Connect's {@code JsonConverter} produces with schemas disabled
+ * (bytes and decimals as Base64, Connect dates and times as epoch numbers, non-string-keyed maps
+ * as arrays of pairs), so events captured through the Connect path look the same on the wire as
+ * events captured through the JSON path.
+ * <p>
+ * Instances are stateless and thread-safe.
+ */
+public class StructJsonWriter {
+    static final byte[] NULL = ascii("null");
+    static final byte[] TRUE = ascii("true");
+    static final byte[] FALSE = ascii("false");
+
+    /**
+     * Writes a struct as a JSON object, with fields in schema order.
+     *
+     * @param out Buffer to write to
+     * @param struct Struct to write
+     */
+    public void writeStruct(ByteBuf out, Struct struct) {
+        out.writeByte('{');
+        boolean first = true;
+        for (Field field : struct.schema().fields()) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            KafkaRestEnvelopeWriter.writeJsonString(out, field.name());
+            out.writeByte(':');
+            writeValue(out, field.schema(), struct.get(field));
+        }
+        out.writeByte('}');
+    }
+
+    /**
+     * Writes a value as JSON according to its schema.
+     *
+     * @param out Buffer to write to
+     * @param schema Schema of the value
+     * @param value Value to write, may be null
+     */
+    public void writeValue(ByteBuf out, Schema schema, Object value) {
+        if (value == null) {
+            out.writeBytes(NULL);
+            return;
+        }
+
+        String logicalName = schema.name();
+        if (logicalName != null) {
+            switch (logicalName) {
+                case Decimal.LOGICAL_NAME -> {
+                    writeBase64(out, Decimal.fromLogical(schema, (BigDecimal) value));
+                    return;
+                }
+                case Date.LOGICAL_NAME -> {
+                    writeAscii(out, Integer.toString(Date.fromLogical(schema, (java.util.Date) value)));
+                    return;
+                }
+                case Time.LOGICAL_NAME -> {
+                    writeAscii(out, Integer.toString(Time.fromLogical(schema, (java.util.Date) value)));
+                    return;
+                }
+                case Timestamp.LOGICAL_NAME -> {
+                    writeAscii(out, Long.toString(Timestamp.fromLogical(schema, (java.util.Date) value)));
+                    return;
+                }
+                default -> {
+                    // Semantic types such as io.debezium.time.* are carried by their primitive type
+                }
+            }
+        }
+
+        switch (schema.type()) {
+            case INT8, INT16, INT32, INT64 -> writeAscii(out, value.toString());
+            case FLOAT32 -> writeFloatingPoint(out, ((Float) value).doubleValue(), value.toString());
+            case FLOAT64 -> writeFloatingPoint(out, (Double) value, value.toString());
+            case BOOLEAN -> out.writeBytes((Boolean) value ? TRUE : FALSE);
+            case STRING -> KafkaRestEnvelopeWriter.writeJsonString(out, (String) value);
+            case BYTES -> writeBase64(out, value instanceof ByteBuffer buffer ? toArray(buffer) : (byte[]) value);
+            case STRUCT -> writeStruct(out, (Struct) value);
+            case ARRAY -> writeArray(out, schema.valueSchema(), (Collection<?>) value);
+            case MAP -> writeMap(out, schema, (Map<?, ?>) value);
+            default -> throw new DataException("Unsupported schema type: " + schema.type());
+        }
+    }
+
+    /**
+     * Renders a key field value the way the key formatter expects: string content for strings
+     * and the JSON text for everything else.
+     *
+     * @param schema Schema of the key field
+     * @param value Key field value
+     * @return Key field value as a string
+     */
+    public String toKeyString(Schema schema, Object value) {
+        if (value == null) {
+            return "null";
+        }
+        switch (schema.type()) {
+            case STRING:
+                return (String) value;
+            case INT8:
+            case INT16:
+            case INT32:
+            case INT64:
+            case BOOLEAN:
+                if (schema.name() == null) {
+                    return value.toString();
+                }
+                break;
+            default:
+                break;
+        }
+
+        ByteBuf buf = Unpooled.buffer(32);
+        writeValue(buf, schema, value);
+        String json = buf.toString(StandardCharsets.UTF_8);
+        // Base64 and other string encodings are used without their quotes, as the JSON path does
+        if (json.length() >= 2 && json.charAt(0) == '"' && json.indexOf('\\') < 0) {
+            return json.substring(1, json.length() - 1);
+        }
+        return json;
+    }
+
+    private void writeArray(ByteBuf out, Schema elementSchema, Collection<?> values) {
+        out.writeByte('[');
+        boolean first = true;
+        for (Object element : values) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            writeValue(out, elementSchema, element);
+        }
+        out.writeByte(']');
+    }
+
+    private void writeMap(ByteBuf out, Schema schema, Map<?, ?> map) {
+        boolean objectMode = schema.keySchema().type() == Schema.Type.STRING;
+        out.writeByte(objectMode ? '{' : '[');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            if (objectMode) {
+                KafkaRestEnvelopeWriter.writeJsonString(out, (String) entry.getKey());
+                out.writeByte(':');
+                writeValue(out, schema.valueSchema(), entry.getValue());
+            } else {
+                out.writeByte('[');
+                writeValue(out, schema.keySchema(), entry.getKey());
+                out.writeByte(',');
+                writeValue(out, schema.valueSchema(), entry.getValue());
+                out.writeByte(']');
+            }
+        }
+        out.writeByte(objectMode ? '}' : ']');
+    }
+
+    private static void writeFloatingPoint(ByteBuf out, double value, String text) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Non-finite numbers are not valid JSON numbers and are written as strings
+            out.writeByte('"');
+            writeAscii(out, text);
+            out.writeByte('"');
+        } else {
+            writeAscii(out, text);
+        }
+    }
+
+    private static void writeBase64(ByteBuf out, byte[] bytes) {
+        out.writeByte('"');
+        out.writeBytes(Base64.getEncoder().encode(bytes));
+        out.writeByte('"');
+    }
+
+    private static void writeAscii(ByteBuf out, String s) {
+        out.writeCharSequence(s, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,45 @@
+package com.exoquic.agent.debezium;
+
+import com.exoquic.agent.model.RowImage;
+import io.netty.buffer.ByteBuf;
+import org.apache.kafka.connect.data.Struct;
+
+/**
+ * A row image held as the Kafka Connect {@link Struct} Debezium produced. It is encoded to JSON
+ * by the table's compiled {@link StructEncoder} only when written to the wire.
+ */
+public class StructRowImage implements RowImage {
+    private final Struct struct;
+    private final StructEncoder encoder;
+    private int estimatedSize = -1;
+
+    /**
+     * Creates a new StructRowImage.
+     *
+     * @param struct Row state
+     * @param encoder Encoder compiled for the row's schema
+     */
+    public StructRowImage(Struct struct, StructEncoder encoder) {
+        this.struct = struct;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return encoder.getFieldCount() == 0;
+    }
+
+    @Override
+    public int estimatedSize() {
+        // Measured once, as batching and retries ask for it repeatedly
+        if (estimatedSize < 0) {
+            estimatedSize = encoder.estimateSize(struct);
+        }
+        return estimatedSize;
+    }
+
+    @Override
+    public void writeJson(ByteBuf out) {
+        encoder.write(out, struct);
+    }
+}
@@ -0,0 +1,187 @@
+package com.exoquic.agent.debezium;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-table cache of what the pipeline derives from a table's identity and key, so that it is not
+ * derived again for every event: the topic name, and the order in which the values of a
+ * composite primary key are joined.
+ * <p>
+ * Entries are created the first time an event for a table is seen, and are looked up by database,
+ * schema and table name without allocating. The PostgreSQL connector emits no schema change
+ * events; a relation change reaches the agent as events with a different key, so every event's
+ * key field names are checked against the cached ones, by identity first. When they differ, for
+ * example after the primary key was changed, the key order is recomputed. The topic name depends
+ * only on the table's identity and stays valid. A schema change event, from connectors that emit
+ * them, drops the table's entry.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class TableMetadataCache {
+    private static final Logger logger = LogManager.getLogger(TableMetadataCache.class);
+
+    /** Entries by database, schema and table name. */
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, TableMetadata>>> entries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Gets the metadata of a table, creating it if the table is new.
+     *
+     * @param database Database name
+     * @param schema Schema name
+     * @param table Table name
+     * @return Metadata of the table
+     */
+    public TableMetadata get(String database, String schema, String table) {
+        ConcurrentMap<String, ConcurrentMap<String, TableMetadata>> schemas = entries.get(database);
+        if (schemas == null) {
+            schemas = entries.computeIfAbsent(database, key -> new ConcurrentHashMap<>());
+        }
+        ConcurrentMap<String, TableMetadata> tables = schemas.get(schema);
+        if (tables == null) {
+            tables = schemas.computeIfAbsent(schema, key -> new ConcurrentHashMap<>());
+        }
+        TableMetadata metadata = tables.get(table);
+        if (metadata != null) {
+            return metadata;
+        }
+        return tables.computeIfAbsent(table, key -> {
+            logger.debug("Caching metadata of table {}.{}.{}", database, schema, table);
+            return new TableMetadata(database + "." + schema + "." + table);
+        });
+    }
+
+    /**
+     * Drops the metadata of a table, for example after a schema change event for it.
+     *
+     * @param database Database name
+     * @param schema Schema name
+     * @param table Table name
+     */
+    public void invalidate(String database, String schema, String table) {
+        ConcurrentMap<String, ConcurrentMap<String, TableMetadata>> schemas = entries.get(database);
+        ConcurrentMap<String, TableMetadata> tables = schemas != null ? schemas.get(schema) : null;
+        if (tables != null && tables.remove(table) != null) {
+            logger.info("Invalidated cached metadata of table {}.{}.{}", database, schema, table);
+        }
+    }
+
+    /**
+     * Gets the number of cached tables.
+     *
+     * @return Number of cached tables
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentMap<String, ConcurrentMap<String, TableMetadata>> schemas : entries.values()) {
+            for (ConcurrentMap<String, TableMetadata> tables : schemas.values()) {
+                size += tables.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Joins the values of a composite key in the order of their field names, separated by colons.
+     *
+     * @param names Key field names
+     * @param values Key field values, parallel to names
+     * @return Joined key values
+     */
+    static String formatCompositeKey(String[] names, String[] values) {
+        return KeyLayout.of(names).format(values);
+    }
+
+    /**
+     * Metadata of one table.
+     */
+    public static final class TableMetadata {
+        private final String topic;
+        private volatile KeyLayout keyLayout;
+
+        private TableMetadata(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Gets the topic the table's events are sent to. The same String instance is returned for
+         * every event of the table.
+         *
+         * @return Topic name in the format [database name].[schema].[table]
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Joins the values of a composite key in the order of their field names, separated by colons.
+         *
+         * @param names Key field names, in event order
+         * @param values Key field values, parallel to names
+         * @return Joined key values
+         */
+        public String formatKey(String[] names, String[] values) {
+            KeyLayout layout = keyLayout;
+            if (layout == null || !layout.matches(names)) {
+                if (layout != null) {
+                    logger.info("Primary key of topic {} changed to {}", topic, Arrays.toString(names));
+                }
+                layout = KeyLayout.of(names);
+                keyLayout = layout;
+            }
+            return layout.format(values);
+        }
+    }
+
+    /**
+     * Key field names in event order and the positions of the fields sorted by name.
+     */
+    private record KeyLayout(String[] names, int[] order) {
+        static KeyLayout of(String[] names) {
+            Integer[] sorted = new Integer[names.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, Comparator.comparing(i -> names[i]));
+            int[] order = new int[sorted.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = sorted[i];
+            }
+            return new KeyLayout(names.clone(), order);
+        }
+
+        boolean matches(String[] other) {
+            if (other.length != names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                // Events of the same schema usually share the name instances
+                if (other[i] != names[i] && !other[i].equals(names[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String format(String[] values) {
+            int length = order.length - 1;
+            for (int i : order) {
+                length += values[i] == null ? 4 : values[i].length();
+            }
+            StringBuilder key = new StringBuilder(length);
+            for (int i = 0; i < order.length; i++) {
+                if (i > 0) {
+                    key.append(':');
+                }
+                key.append(values[order[i]]);
+            }
+            return key.toString();
+        }
+    }
+}
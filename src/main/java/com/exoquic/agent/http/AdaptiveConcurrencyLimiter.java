@@ -0,0 +1,226 @@
+package com.exoquic.agent.http;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Limits the number of produce requests in flight, adapting the limit to how Exoquic responds.
+ * <p>
+ * The limit follows a Vegas-style policy on round-trip times, evaluated once per window of about
+ * {@code limit} completed requests, i.e. roughly once per round trip. The lowest RTT seen
+ * approximates the RTT without queueing, so {@code limit * (1 - minRtt / avgRtt)} estimates how
+ * many requests are queued at the endpoint. While that estimate is small the limit grows, and once
+ * it exceeds a threshold the limit shrinks, both in steps of {@code log10(limit)}. Timeouts, 429
+ * and 5xx responses are treated as dropped requests and cut the limit multiplicatively, once per
+ * window. The limit only grows while requests actually use most of it, and the minimum RTT is
+ * re-measured periodically so it follows changes in the network path.
+ * <p>
+ * Requests beyond the limit wait in order until a slot frees up. Instances are thread-safe.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger logger = LogManager.getLogger(AdaptiveConcurrencyLimiter.class);
+    /** Estimated queue size, in multiples of log10(limit), below which the limit grows. */
+    private static final int ALPHA = 3;
+    /** Estimated queue size, in multiples of log10(limit), above which the limit shrinks. */
+    private static final int BETA = 6;
+    /** Number of windows after which the minimum RTT is measured anew. */
+    private static final int MIN_RTT_RESET_WINDOWS = 100;
+    /** Factor the limit is multiplied by when a request is dropped. */
+    private static final double DROP_DECREASE = 0.75;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Deque<MonoSink<Permit>> waiters = new ArrayDeque<>();
+
+    private double limit;
+    private long minRttNanos;
+    private int windows;
+    private int windowSamples;
+    private long windowRttNanos;
+    private boolean windowDropped;
+    private int inFlight;
+
+    /**
+     * Creates a new AdaptiveConcurrencyLimiter.
+     *
+     * @param initialLimit Initial number of requests allowed in flight
+     * @param minLimit Lowest limit the policy may set
+     * @param maxLimit Highest limit the policy may set
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Runs a request once a slot is free. Each subscription, such as a retry, takes its own slot
+     * and contributes its own sample.
+     *
+     * @param request Request to run
+     * @param <T> Type of the response
+     * @return Mono running the request within the limit
+     */
+    public <T> Mono<T> limit(Mono<T> request) {
+        return acquire().flatMap(permit -> {
+            Throwable[] failure = new Throwable[1];
+            return request
+                    .doOnError(e -> failure[0] = e)
+                    .doFinally(signal -> release(permit, failure[0]));
+        });
+    }
+
+    /**
+     * Gets the current number of requests allowed in flight.
+     *
+     * @return Concurrency limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return In-flight request count
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gets the number of requests waiting for a slot.
+     *
+     * @return Waiting request count
+     */
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    /**
+     * Takes a slot, waiting for one to free up if the limit is reached. A permit granted to a
+     * subscriber that has just cancelled is discarded, and its slot is handed back.
+     */
+    private Mono<Permit> acquire() {
+        return Mono.<Permit>create(sink -> {
+            synchronized (this) {
+                if (inFlight >= (int) limit) {
+                    waiters.addLast(sink);
+                    sink.onCancel(() -> cancel(sink));
+                    return;
+                }
+                inFlight++;
+            }
+            sink.success(new Permit(System.nanoTime()));
+        }).doOnDiscard(Permit.class, permit -> release(null, null));
+    }
+
+    private void release(Permit permit, Throwable failure) {
+        List<MonoSink<Permit>> granted = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            if (permit != null) {
+                update(permit, failure);
+            }
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                inFlight++;
+                granted.add(waiters.pollFirst());
+            }
+        }
+        for (MonoSink<Permit> waiter : granted) {
+            waiter.success(new Permit(System.nanoTime()));
+        }
+    }
+
+    private synchronized void cancel(MonoSink<Permit> waiter) {
+        waiters.remove(waiter);
+    }
+
+    /**
+     * Adjusts the limit from the outcome of a request. Must be called while holding the lock.
+     */
+    private void update(Permit permit, Throwable failure) {
+        if (failure != null && !isDrop(failure)) {
+            // Client errors say nothing about congestion
+            return;
+        }
+        if (failure != null) {
+            windowDropped = true;
+        } else {
+            long rtt = System.nanoTime() - permit.startNanos;
+            windowRttNanos += rtt;
+            if (minRttNanos == 0 || rtt < minRttNanos) {
+                minRttNanos = rtt;
+            }
+        }
+        if (++windowSamples < limit) {
+            return;
+        }
+
+        double previous = limit;
+        if (windowDropped) {
+            limit = Math.max(minLimit, limit * DROP_DECREASE);
+        } else if (windowRttNanos > 0) {
+            double avgRtt = (double) windowRttNanos / windowSamples;
+            double step = Math.max(1.0, Math.log10(limit));
+            double queued = limit * (1 - minRttNanos / avgRtt);
+            if (queued <= ALPHA * step) {
+                // Grow only when the limit is actually being used, not while traffic is light
+                if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + step);
+                }
+            } else if (queued >= BETA * step) {
+                limit = Math.max(minLimit, limit - step);
+            }
+        }
+
+        windowSamples = 0;
+        windowRttNanos = 0;
+        windowDropped = false;
+        if (++windows >= MIN_RTT_RESET_WINDOWS) {
+            windows = 0;
+            minRttNanos = 0;
+        }
+
+        if ((int) limit != (int) previous) {
+            logger.debug("Concurrency limit {} -> {} (min RTT {} us)", (int) previous, (int) limit, minRttNanos / 1000);
+        }
+    }
+
+    /**
+     * Checks whether a failure means the request was dropped because of load: a timeout, or a
+     * 429 or 5xx response.
+     */
+    private static boolean isDrop(Throwable failure) {
+        if (failure instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status == 429 || status >= 500;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof io.netty.handler.timeout.TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A slot granted to a request, with the time it was granted.
+     */
+    private static final class Permit {
+        private final long startNanos;
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+}
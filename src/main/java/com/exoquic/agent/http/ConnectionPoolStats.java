@@ -0,0 +1,88 @@
+package com.exoquic.agent.http;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Collects the statistics of the HTTP connection pools.
+ * <p>
+ * Reactor Netty keeps one pool per remote address and registers each with this registrar, so
+ * the pool statistics are available without a metrics library. The getters sum over all pools.
+ */
+public class ConnectionPoolStats implements ConnectionProvider.MeterRegistrar {
+    private static final Logger logger = LogManager.getLogger(ConnectionPoolStats.class);
+
+    private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        logger.debug("Connection pool {} opened for {}", poolName, remoteAddress);
+        pools.put(id + '@' + remoteAddress, metrics);
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        logger.debug("Connection pool {} closed for {}", poolName, remoteAddress);
+        pools.remove(id + '@' + remoteAddress);
+    }
+
+    /**
+     * Gets the number of connections currently in use.
+     *
+     * @return Acquired connection count
+     */
+    public int getAcquired() {
+        return sum(ConnectionPoolMetrics::acquiredSize);
+    }
+
+    /**
+     * Gets the number of open connections, in use or idle.
+     *
+     * @return Allocated connection count
+     */
+    public int getAllocated() {
+        return sum(ConnectionPoolMetrics::allocatedSize);
+    }
+
+    /**
+     * Gets the number of open connections that are not in use.
+     *
+     * @return Idle connection count
+     */
+    public int getIdle() {
+        return sum(ConnectionPoolMetrics::idleSize);
+    }
+
+    /**
+     * Gets the number of requests waiting for a connection.
+     *
+     * @return Pending acquire count
+     */
+    public int getPendingAcquire() {
+        return sum(ConnectionPoolMetrics::pendingAcquireSize);
+    }
+
+    /**
+     * Gets the maximum number of connections the pools may open.
+     *
+     * @return Maximum allocated connection count
+     */
+    public int getMaxAllocated() {
+        return sum(ConnectionPoolMetrics::maxAllocatedSize);
+    }
+
+    private int sum(ToIntFunction<ConnectionPoolMetrics> stat) {
+        int total = 0;
+        for (ConnectionPoolMetrics metrics : pools.values()) {
+            total += stat.applyAsInt(metrics);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,349 @@
+package com.exoquic.agent.http;
+
+import com.exoquic.agent.storage.SegmentLog;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps events that Exoquic rejected for good in a {@link SegmentLog} on local disk, so they can be
+ * replayed once the cause is fixed instead of being lost.
+ * <p>
+ * Writes are handed to a single writer thread through a bounded queue, so a burst of rejected
+ * events never blocks the pipeline; when the queue is full, the event is dropped and logged.
+ * Each record holds {@code [long lsn][long failed at][int record count][short topic length][topic]
+ * [int key length][key][int error length][error][request body]}, where the key length is -1 for a
+ * record without a key, such as a rejected spilled request, and the request body is a complete
+ * Kafka REST produce request that can be sent as it is.
+ * <p>
+ * The directory is locked while it is open, so a replay cannot run while an agent is using it.
+ */
+public class DeadLetterQueue {
+    private static final Logger logger = LogManager.getLogger(DeadLetterQueue.class);
+    private static final int MAX_ERROR_CHARS = 1024;
+
+    private final SegmentLog log;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ThreadPoolExecutor writer;
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Opens the dead-letter queue in a directory.
+     *
+     * @param directory Directory holding the segment files; created if missing
+     * @param segmentBytes Size of each segment file in bytes
+     * @param maxBytes Maximum total size of all segment files in bytes
+     * @param queueCapacity Maximum number of events waiting to be written
+     * @throws IOException if the directory cannot be opened or is in use by another process
+     */
+    public DeadLetterQueue(Path directory, int segmentBytes, long maxBytes, int queueCapacity) throws IOException {
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        this.lock = acquired;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Dead-letter directory " + directory + " is in use by another process");
+        }
+        try {
+            this.log = new SegmentLog(directory, segmentBytes, maxBytes);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "exoquic-dead-letter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        if (!log.isEmpty()) {
+            logger.warn("{} dead-lettered entries are waiting to be replayed", log.getPendingRecords());
+        }
+    }
+
+    /**
+     * Queues a rejected request for writing. The body is copied, and not consumed or released.
+     *
+     * @param topicName Topic the request was for
+     * @param key Key of the event, or null if the request holds several events
+     * @param lsn LSN of the event, or -1 if unknown
+     * @param recordCount Number of events in the request, or 0 if unknown
+     * @param error Reason the request was rejected
+     * @param body Kafka REST produce request body
+     * @param onWritten Called on the writer thread once the entry is stored, or dropped because
+     *                  the log is full; may be null
+     * @return true if the entry was queued, false if the queue is full
+     */
+    public boolean offer(String topicName, String key, long lsn, int recordCount, String error, ByteBuf body,
+                         Runnable onWritten) {
+        ByteBuf entry = encode(topicName, key, lsn, recordCount, error, body);
+        try {
+            writer.execute(() -> {
+                store(entry);
+                if (onWritten != null) {
+                    onWritten.run();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Sends the dead-lettered requests to Exoquic again, oldest first, at no more than the given
+     * rate. Entries that are written are removed. Records that are rejected again are moved to
+     * the back with their new error, so every entry is tried once per replay. The replay stops
+     * at the first request that cannot be delivered at all, leaving it and the rest in place, or
+     * with records that failed with a retriable error, which are moved to the back with their
+     * previous error while the records that were written are removed.
+     *
+     * @param httpClient HTTP client to send the requests with
+     * @param eventsPerSecond Maximum number of events to send per second
+     * @return Mono emitting the number of events delivered
+     */
+    public Mono<Long> replay(ReactiveHttpClient httpClient, int eventsPerSecond) {
+        return Mono.defer(() -> {
+            long entries = log.getPendingRecords();
+            logger.info("Replaying {} dead-lettered entries at up to {} events per second", entries, eventsPerSecond);
+            AtomicLong remaining = new AtomicLong(entries);
+            AtomicLong delivered = new AtomicLong();
+            return Mono.defer(() -> replayOldest(httpClient, eventsPerSecond, delivered))
+                    .repeat(() -> remaining.decrementAndGet() > 0 && !log.isEmpty())
+                    .then(Mono.fromCallable(delivered::get))
+                    .doOnSuccess(count -> logger.info("Replay finished: {} events delivered, {} entries left",
+                            count, log.getPendingRecords()));
+        });
+    }
+
+    /**
+     * Gets the number of entries waiting to be replayed.
+     *
+     * @return Dead-lettered entry count
+     */
+    public long getPendingEntries() {
+        return log.getPendingRecords();
+    }
+
+    /**
+     * Gets the number of entries written since the queue was opened.
+     *
+     * @return Stored entry count
+     */
+    public long getStored() {
+        return stored.sum();
+    }
+
+    /**
+     * Gets the number of entries that could not be written because the queue or log was full.
+     *
+     * @return Dropped entry count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the entries still queued, then closes the log and releases the directory.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Error releasing dead-letter directory lock: {}", e.getMessage());
+        }
+    }
+
+    private boolean store(ByteBuf entry) {
+        try {
+            if (log.append(entry)) {
+                stored.increment();
+                return true;
+            }
+            logger.error("Dead-letter queue is full ({} entries, {} bytes); an entry for topic {} was dropped",
+                    log.getPendingRecords(), log.getPendingBytes(), readString(entry.duplicate().skipBytes(22), entry.getUnsignedShort(20)));
+        } catch (IOException e) {
+            logger.error("Error writing dead-letter entry: {}", e.getMessage(), e);
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private Mono<Void> replayOldest(ReactiveHttpClient httpClient, int eventsPerSecond, AtomicLong delivered) {
+        ByteBuf entry = log.peek();
+        if (entry == null) {
+            return Mono.empty();
+        }
+        long lsn = entry.readLong();
+        entry.skipBytes(8);
+        int recordCount = entry.readInt();
+        String topicName = readString(entry, entry.readUnsignedShort());
+        String key = readString(entry, entry.readInt());
+        String previousError = readString(entry, entry.readInt());
+        ByteBuf body = entry.slice();
+        int[] records = findRecords(body);
+        // Spilled requests are dead-lettered without a record count, so count their records instead
+        int eventCount = recordCount > 0 ? recordCount : records.length > 0 ? records.length / 2 : 1;
+        Duration pace = Duration.ofNanos(TimeUnit.SECONDS.toNanos(eventCount) / eventsPerSecond);
+
+        return httpClient.sendEvent(body.retain(), topicName)
+                .flatMap(response -> replayed(topicName, key, lsn, eventCount, previousError, body, records, response,
+                        delivered))
+                .onErrorResume(e -> ProduceFailure.classify(e).isPermanent(), e -> {
+                    logger.warn("Dead-lettered event with key {} (LSN {}) for topic {} was rejected again: {}",
+                            key, lsn, topicName, e.getMessage());
+                    return moveToBack(topicName, key, lsn, eventCount, e.getMessage(), body);
+                })
+                .then(Mono.fromRunnable(log::remove))
+                .then(Mono.delay(pace))
+                .then()
+                .doFinally(signal -> body.release());
+    }
+
+    /**
+     * Handles the results of replaying an entry.
+     *
+     * @return Mono that completes when the entry can be removed, or fails when the replay stops
+     */
+    private Mono<Void> replayed(String topicName, String key, long lsn, int eventCount, String previousError,
+                                ByteBuf body, int[] records, ProduceResponse response, AtomicLong delivered) {
+        if (response.getFailedCount() == 0) {
+            delivered.addAndGet(eventCount);
+            return Mono.empty();
+        }
+        BitSet rejected = new BitSet();
+        BitSet retriable = new BitSet();
+        for (int i = 0; i < response.size(); i++) {
+            if (response.isRetriable(i)) {
+                retriable.set(i);
+            } else if (response.isFailed(i)) {
+                rejected.set(i);
+            }
+        }
+
+        if (response.size() != records.length / 2) {
+            // Without record boundaries, the entry can only be kept or moved as a whole
+            if (!retriable.isEmpty()) {
+                return Mono.error(new IllegalStateException(retriable.cardinality() + " records were not written"));
+            }
+            String error = describe(response);
+            logger.warn("Dead-lettered event with key {} (LSN {}) for topic {} was rejected again: {}",
+                    key, lsn, topicName, error);
+            return moveToBack(topicName, key, lsn, eventCount, error, body);
+        }
+
+        delivered.addAndGet(response.size() - response.getFailedCount());
+        if (!rejected.isEmpty()) {
+            String error = describe(response);
+            logger.warn("{} of {} dead-lettered events for topic {} were rejected again: {}",
+                    rejected.cardinality(), response.size(), topicName, error);
+            if (!moveRecordsToBack(topicName, key, lsn, error, body, records, rejected)) {
+                return Mono.error(new IOException("Dead-letter entry could not be moved to the back"));
+            }
+        }
+        if (retriable.isEmpty()) {
+            return Mono.empty();
+        }
+        // Not rejected for good, so they keep their previous error; the written records are removed
+        if (!moveRecordsToBack(topicName, key, lsn, previousError, body, records, retriable)) {
+            return Mono.error(new IOException("Dead-letter entry could not be moved to the back"));
+        }
+        log.remove();
+        return Mono.error(new IllegalStateException(retriable.cardinality() + " records were not written"));
+    }
+
+    private Mono<Void> moveToBack(String topicName, String key, long lsn, int recordCount, String error, ByteBuf body) {
+        return store(encode(topicName, key, lsn, recordCount, error, body))
+                ? Mono.empty()
+                : Mono.error(new IOException("Dead-letter entry could not be moved to the back"));
+    }
+
+    private boolean moveRecordsToBack(String topicName, String key, long lsn, String error, ByteBuf body,
+                                      int[] records, BitSet selected) {
+        ByteBuf selectedBody = ProduceRequestBody.select(body, records, selected);
+        try {
+            return store(encode(topicName, key, lsn, selected.cardinality(), error, selectedBody));
+        } finally {
+            selectedBody.release();
+        }
+    }
+
+    private static int[] findRecords(ByteBuf body) {
+        try {
+            return ProduceRequestBody.findRecords(body);
+        } catch (IllegalArgumentException e) {
+            return new int[0];
+        }
+    }
+
+    private static ByteBuf encode(String topicName, String key, long lsn, int recordCount, String error, ByteBuf body) {
+        String reason = error == null ? "" : error.length() > MAX_ERROR_CHARS ? error.substring(0, MAX_ERROR_CHARS) : error;
+        int topicBytes = ByteBufUtil.utf8Bytes(topicName);
+        int keyBytes = key == null ? 0 : ByteBufUtil.utf8Bytes(key);
+        int reasonBytes = ByteBufUtil.utf8Bytes(reason);
+        ByteBuf entry = Unpooled.buffer(30 + topicBytes + keyBytes + reasonBytes + body.readableBytes());
+        entry.writeLong(lsn);
+        entry.writeLong(System.currentTimeMillis());
+        entry.writeInt(recordCount);
+        entry.writeShort(topicBytes);
+        entry.writeCharSequence(topicName, StandardCharsets.UTF_8);
+        entry.writeInt(key == null ? -1 : keyBytes);
+        if (key != null) {
+            entry.writeCharSequence(key, StandardCharsets.UTF_8);
+        }
+        entry.writeInt(reasonBytes);
+        entry.writeCharSequence(reason, StandardCharsets.UTF_8);
+        entry.writeBytes(body, body.readerIndex(), body.readableBytes());
+        return entry;
+    }
+
+    private static String readString(ByteBuf entry, int length) {
+        return length < 0 ? null : entry.readCharSequence(length, StandardCharsets.UTF_8).toString();
+    }
+
+    private static String describe(ProduceResponse response) {
+        for (int i = 0; i < response.size(); i++) {
+            if (response.isFailed(i) && !response.isRetriable(i)) {
+                return "error " + response.getErrorCode(i) + ": " + response.getError(i);
+            }
+        }
+        return "";
+    }
+}
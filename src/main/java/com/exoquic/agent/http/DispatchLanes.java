@@ -0,0 +1,92 @@
+package com.exoquic.agent.http;
+
+import com.exoquic.agent.model.ExoquicEvent;
+import com.exoquic.agent.model.ProduceBatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Partitions events into a fixed number of ordered dispatch lanes.
+ * <p>
+ * Each event is assigned to a lane by the hash of its topic and key, so all events of a channel
+ * go through the same lane. A lane sends one batch at a time and waits for it to complete,
+ * including retries, before sending the next, which keeps the events of a channel in order.
+ * Lanes run independently of each other, so up to {@code laneCount} batches are in flight.
+ */
+public class DispatchLanes {
+    private static final Logger logger = LogManager.getLogger(DispatchLanes.class);
+
+    private final int laneCount;
+    /** Events assigned to each lane that have not finished sending yet. */
+    private final AtomicLongArray queueDepth;
+
+    /**
+     * Creates a new DispatchLanes.
+     *
+     * @param laneCount Number of lanes
+     */
+    public DispatchLanes(int laneCount) {
+        this.laneCount = laneCount;
+        this.queueDepth = new AtomicLongArray(laneCount);
+        logger.info("DispatchLanes initialized with {} lanes", laneCount);
+    }
+
+    /**
+     * Dispatches events through the lanes.
+     *
+     * @param events Events in capture order
+     * @param batcher Groups the events of a lane into produce batches
+     * @param sender Sends a batch; the lane waits for the returned Mono before sending its next batch
+     * @param <R> Result type of the sender
+     * @return Flux of send results from all lanes
+     */
+    public <R> Flux<R> dispatch(Flux<ExoquicEvent> events,
+                                Function<Flux<ExoquicEvent>, Flux<ProduceBatch>> batcher,
+                                Function<ProduceBatch, Mono<R>> sender) {
+        return events
+                .groupBy(this::laneOf)
+                .flatMap(lane -> {
+                    int index = lane.key();
+                    return lane
+                            .doOnNext(event -> queueDepth.incrementAndGet(index))
+                            .transform(batcher)
+                            .concatMap(batch -> sender.apply(batch)
+                                    .doFinally(signal -> queueDepth.addAndGet(index, -batch.size())));
+                }, laneCount);
+    }
+
+    /**
+     * Gets the lane an event is dispatched through.
+     *
+     * @param event Event
+     * @return Lane index
+     */
+    public int laneOf(ExoquicEvent event) {
+        int hash = 31 * event.getTopic().hashCode() + event.getKey().hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), laneCount);
+    }
+
+    /**
+     * Gets the number of lanes.
+     *
+     * @return Lane count
+     */
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Gets the number of events assigned to a lane that have not finished sending yet.
+     *
+     * @param lane Lane index
+     * @return Queued and in-flight events of the lane
+     */
+    public long getQueueDepth(int lane) {
+        return queueDepth.get(lane);
+    }
+}
@@ -0,0 +1,152 @@
+package com.exoquic.agent.http;
+
+import com.exoquic.agent.model.ExoquicEvent;
+import com.exoquic.agent.model.ProduceBatch;
+import com.exoquic.agent.model.RowImage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes Kafka REST v2 produce request bodies directly into Netty buffers.
+ * <p>
+ * The envelope has the form
+ * {@code {"records":[{"key":..,"value":{"type":..,"data":..},"headers":[{"key":"channel","value":..}]},..]}}.
+ * The row data is written by its {@link RowImage}, which copies raw JSON through or encodes a
+ * Struct in place, so no intermediate Strings or JSON trees are created for an event.
+ * <p>
+ * Instances are stateless and thread-safe.
+ */
+public class KafkaRestEnvelopeWriter {
+    private static final byte[] RECORDS_START = ascii("{\"records\":[");
+    private static final byte[] RECORDS_END = ascii("]}");
+    private static final byte[] KEY_START = ascii("{\"key\":");
+    private static final byte[] TYPE_START = ascii(",\"value\":{\"type\":\"");
+    private static final byte[] DATA_START = ascii("\",\"data\":");
+    private static final byte[] HEADERS_START = ascii("},\"headers\":[{\"key\":\"channel\",\"value\":\"");
+    private static final byte[] HEADERS_END = ascii("\"}]}");
+    private static final byte[] BASE64 = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final ByteBufAllocator allocator;
+
+    /**
+     * Creates a new KafkaRestEnvelopeWriter.
+     *
+     * @param allocator Allocator for output buffers, normally the pooled allocator
+     */
+    public KafkaRestEnvelopeWriter(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Writes a produce request body containing every event of a batch, in order.
+     * The caller owns the returned buffer and is responsible for releasing it.
+     *
+     * @param batch Events to write
+     * @return Buffer holding the request body
+     */
+    public ByteBuf write(ProduceBatch batch) {
+        ByteBuf out = allocator.buffer(RECORDS_START.length + RECORDS_END.length + batch.getEstimatedSize());
+        try {
+            out.writeBytes(RECORDS_START);
+            List<ExoquicEvent> events = batch.getEvents();
+            for (int i = 0; i < events.size(); i++) {
+                if (i > 0) {
+                    out.writeByte(',');
+                }
+                writeRecord(out, events.get(i));
+            }
+            out.writeBytes(RECORDS_END);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    private void writeRecord(ByteBuf out, ExoquicEvent event) {
+        out.writeBytes(KEY_START);
+        writeJsonString(out, event.getKey());
+        out.writeBytes(TYPE_START);
+        out.writeCharSequence(event.getType().getValue(), StandardCharsets.US_ASCII);
+        out.writeBytes(DATA_START);
+        event.getData().writeJson(out);
+        out.writeBytes(HEADERS_START);
+        writeBase64Utf8(out, event.getKey());
+        out.writeBytes(HEADERS_END);
+    }
+
+    /**
+     * Writes a string as a quoted, escaped JSON string.
+     *
+     * @param out Buffer to write to
+     * @param s String to write
+     */
+    public static void writeJsonString(ByteBuf out, String s) {
+        out.writeByte('"');
+        int runStart = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            if (i > runStart) {
+                ByteBufUtil.writeUtf8(out, s, runStart, i);
+            }
+            out.writeByte('\\');
+            switch (c) {
+                case '"', '\\' -> out.writeByte(c);
+                case '\n' -> out.writeByte('n');
+                case '\r' -> out.writeByte('r');
+                case '\t' -> out.writeByte('t');
+                case '\b' -> out.writeByte('b');
+                case '\f' -> out.writeByte('f');
+                default -> {
+                    out.writeByte('u').writeByte('0').writeByte('0');
+                    out.writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xF]);
+                }
+            }
+            runStart = i + 1;
+        }
+        if (runStart < s.length()) {
+            ByteBufUtil.writeUtf8(out, s, runStart, s.length());
+        }
+        out.writeByte('"');
+    }
+
+    /**
+     * Writes the standard Base64 encoding of the UTF-8 bytes of a string.
+     */
+    private static void writeBase64Utf8(ByteBuf out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            out.writeByte(BASE64[n >>> 18 & 0x3F]);
+            out.writeByte(BASE64[n >>> 12 & 0x3F]);
+            out.writeByte(BASE64[n >>> 6 & 0x3F]);
+            out.writeByte(BASE64[n & 0x3F]);
+        }
+        int remaining = bytes.length - i;
+        if (remaining == 1) {
+            int n = (bytes[i] & 0xFF) << 16;
+            out.writeByte(BASE64[n >>> 18 & 0x3F]);
+            out.writeByte(BASE64[n >>> 12 & 0x3F]);
+            out.writeByte('=').writeByte('=');
+        } else if (remaining == 2) {
+            int n = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            out.writeByte(BASE64[n >>> 18 & 0x3F]);
+            out.writeByte(BASE64[n >>> 12 & 0x3F]);
+            out.writeByte(BASE64[n >>> 6 & 0x3F]);
+            out.writeByte('=');
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,87 @@
+package com.exoquic.agent.http;
+
+import com.exoquic.agent.model.ExoquicEvent;
+import com.exoquic.agent.model.ProduceBatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups events into multi-record produce requests per topic.
+ * <p>
+ * Events are accumulated until either {@code maxRecords} events have arrived or {@code linger}
+ * has passed since the first one, whichever comes first. The accumulated events are then split
+ * by topic, and each topic's events are cut into batches of at most {@code maxBytes} estimated
+ * request bytes. Events keep their capture order within a topic.
+ */
+public class ProduceBatcher {
+    private static final Logger logger = LogManager.getLogger(ProduceBatcher.class);
+
+    private final int maxRecords;
+    private final int maxBytes;
+    private final Duration linger;
+
+    /**
+     * Creates a new ProduceBatcher.
+     *
+     * @param maxRecords Maximum number of events per batch
+     * @param maxBytes Maximum estimated request body size per batch; a single larger event is sent alone
+     * @param linger Maximum time to wait for a batch to fill up
+     */
+    public ProduceBatcher(int maxRecords, int maxBytes, Duration linger) {
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.linger = linger;
+        logger.info("ProduceBatcher initialized with maxRecords={}, maxBytes={}, linger={}ms",
+            maxRecords, maxBytes, linger.toMillis());
+    }
+
+    /**
+     * Groups a flux of events into produce batches.
+     *
+     * @param events Events in capture order
+     * @return Flux of batches
+     */
+    public Flux<ProduceBatch> batch(Flux<ExoquicEvent> events) {
+        return events
+                .bufferTimeout(maxRecords, linger, true)
+                .concatMapIterable(this::split);
+    }
+
+    /**
+     * Splits accumulated events into per-topic batches that respect the byte limit.
+     *
+     * @param events Accumulated events in capture order
+     * @return Batches, grouped by topic
+     */
+    private List<ProduceBatch> split(List<ExoquicEvent> events) {
+        Map<String, List<ExoquicEvent>> byTopic = new LinkedHashMap<>();
+        for (ExoquicEvent event : events) {
+            byTopic.computeIfAbsent(event.getTopic(), topic -> new ArrayList<>()).add(event);
+        }
+
+        List<ProduceBatch> batches = new ArrayList<>(byTopic.size());
+        for (Map.Entry<String, List<ExoquicEvent>> entry : byTopic.entrySet()) {
+            List<ExoquicEvent> current = new ArrayList<>();
+            int currentBytes = 0;
+            for (ExoquicEvent event : entry.getValue()) {
+                int size = event.estimatedSize();
+                if (!current.isEmpty() && currentBytes + size > maxBytes) {
+                    batches.add(new ProduceBatch(entry.getKey(), current, currentBytes));
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                }
+                current.add(event);
+                currentBytes += size;
+            }
+            batches.add(new ProduceBatch(entry.getKey(), current, currentBytes));
+        }
+        return batches;
+    }
+}
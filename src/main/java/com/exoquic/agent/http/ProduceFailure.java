@@ -0,0 +1,67 @@
+package com.exoquic.agent.http;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Classes of failed produce requests, which decide what happens to the events they carried.
+ */
+public enum ProduceFailure {
+    /**
+     * The request may succeed later: a transport error, a timeout, 408, 429 or a server error.
+     * Failures that cannot be classified also fall in this class, so their events are kept.
+     */
+    RETRIABLE,
+
+    /**
+     * The request body is too large (413) and has to be split before it is sent again.
+     */
+    TOO_LARGE,
+
+    /**
+     * Exoquic rejected the contents of the request, e.g. with 400 or 422. Sending it again
+     * cannot succeed.
+     */
+    REJECTED,
+
+    /**
+     * Exoquic rejected the agent's credentials (401 or 403). Nothing can be delivered until the
+     * configuration is fixed, so events are kept rather than dropped.
+     */
+    UNAUTHORIZED;
+
+    /**
+     * Classifies the failure of a produce request.
+     *
+     * @param e Failure of the request
+     * @return Failure class
+     */
+    public static ProduceFailure classify(Throwable e) {
+        if (!(e instanceof WebClientResponseException response)) {
+            return RETRIABLE;
+        }
+        int status = response.getStatusCode().value();
+        if (status == 413) {
+            return TOO_LARGE;
+        }
+        if (status == 401 || status == 403) {
+            return UNAUTHORIZED;
+        }
+        if (status == 501 || status == 505) {
+            // The endpoint does not support the request at all
+            return REJECTED;
+        }
+        if (status == 408 || status == 429 || status >= 500) {
+            return RETRIABLE;
+        }
+        return status >= 400 ? REJECTED : RETRIABLE;
+    }
+
+    /**
+     * Checks whether the request can never succeed as it is.
+     *
+     * @return true for rejected and too large requests
+     */
+    public boolean isPermanent() {
+        return this == REJECTED || this == TOO_LARGE;
+    }
+}
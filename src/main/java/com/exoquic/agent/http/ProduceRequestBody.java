@@ -0,0 +1,141 @@
+package com.exoquic.agent.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Locates and selects the records of a Kafka REST produce request body, as written by
+ * {@link KafkaRestEnvelopeWriter}, so that the records of a stored request that were not
+ * written can be sent again on their own.
+ * <p>
+ * Record boundaries are given as pairs of offsets {@code [start, end)} relative to the reader
+ * index of the body, two ints per record.
+ */
+final class ProduceRequestBody {
+    private static final byte[] RECORDS_START = "{\"records\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECORDS_END = "]}".getBytes(StandardCharsets.US_ASCII);
+
+    private ProduceRequestBody() {
+    }
+
+    /**
+     * Finds the records of a request body. The body is scanned once, skipping over strings, so
+     * braces and brackets inside keys and values do not count.
+     *
+     * @param body Request body; its reader index is not moved
+     * @return Start and end offset of every record, in order
+     * @throws IllegalArgumentException if the body is not a produce request with a records array
+     */
+    static int[] findRecords(ByteBuf body) {
+        int base = body.readerIndex();
+        int end = body.writerIndex();
+        int[] records = new int[16];
+        int count = 0;
+        int depth = 0;
+        int recordStart = -1;
+        boolean inArray = false;
+        boolean inString = false;
+
+        for (int i = base; i < end; i++) {
+            byte b = body.getByte(i);
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            switch (b) {
+                case '"' -> inString = true;
+                case '{', '[' -> {
+                    depth++;
+                    if (b == '[' && depth == 2 && !inArray) {
+                        inArray = true;
+                    } else if (inArray && depth == 3) {
+                        recordStart = i;
+                    }
+                }
+                case '}', ']' -> {
+                    if (inArray && depth == 3) {
+                        if (count * 2 == records.length) {
+                            records = Arrays.copyOf(records, records.length * 2);
+                        }
+                        records[count * 2] = recordStart - base;
+                        records[count * 2 + 1] = i + 1 - base;
+                        count++;
+                    } else if (inArray && depth == 2) {
+                        return Arrays.copyOf(records, count * 2);
+                    }
+                    depth--;
+                }
+                default -> {
+                }
+            }
+        }
+        throw new IllegalArgumentException("Not a produce request body with a records array");
+    }
+
+    /**
+     * Writes a request body holding only the selected records, in their original order.
+     * The caller owns the returned buffer.
+     *
+     * @param body Original request body; not consumed
+     * @param records Record boundaries found by {@link #findRecords(ByteBuf)}
+     * @param selected Indexes of the records to keep
+     * @return New request body
+     */
+    static ByteBuf select(ByteBuf body, int[] records, BitSet selected) {
+        return select(List.of(new Selection(body, records, selected)));
+    }
+
+    /**
+     * Writes a request body holding the selected records of several request bodies, in order.
+     * The caller owns the returned buffer.
+     *
+     * @param selections Records to keep from each request body
+     * @return New request body
+     */
+    static ByteBuf select(List<Selection> selections) {
+        int size = RECORDS_START.length + RECORDS_END.length;
+        for (Selection selection : selections) {
+            int[] records = selection.records();
+            BitSet selected = selection.selected();
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                size += records[i * 2 + 1] - records[i * 2] + 1;
+            }
+        }
+        ByteBuf out = Unpooled.buffer(size);
+        out.writeBytes(RECORDS_START);
+        boolean first = true;
+        for (Selection selection : selections) {
+            ByteBuf body = selection.body();
+            int[] records = selection.records();
+            BitSet selected = selection.selected();
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                out.writeBytes(body, body.readerIndex() + records[i * 2], records[i * 2 + 1] - records[i * 2]);
+            }
+        }
+        out.writeBytes(RECORDS_END);
+        return out;
+    }
+
+    /**
+     * Records to keep from a request body.
+     *
+     * @param body Request body; not consumed
+     * @param records Record boundaries found by {@link #findRecords(ByteBuf)}
+     * @param selected Indexes of the records to keep
+     */
+    record Selection(ByteBuf body, int[] records, BitSet selected) {
+    }
+}
@@ -0,0 +1,119 @@
+package com.exoquic.agent.http;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+
+/**
+ * Per-record results of a Kafka REST v2 produce request.
+ * <p>
+ * The response has the form
+ * {@code {"offsets":[{"partition":..,"offset":..,"error_code":..,"error":..},..],..}} with one
+ * entry per record of the request, in order. A null {@code error_code} means the record was
+ * written. Error code 2, or 50003 as used by some proxies, means the write may succeed if retried;
+ * any other code means the record was rejected.
+ */
+public class ProduceResponse {
+    /** Response for a request whose body did not list any record results. */
+    public static final ProduceResponse EMPTY = new ProduceResponse(new int[0], new String[0]);
+
+    private static final int RETRIABLE_ERROR = 2;
+    private static final int RETRIABLE_PROXY_ERROR = 50003;
+
+    private final int[] errorCodes;
+    private final String[] errors;
+    private final int failedCount;
+
+    private ProduceResponse(int[] errorCodes, String[] errors) {
+        this.errorCodes = errorCodes;
+        this.errors = errors;
+        int failed = 0;
+        for (int code : errorCodes) {
+            if (code != 0) {
+                failed++;
+            }
+        }
+        this.failedCount = failed;
+    }
+
+    /**
+     * Parses a produce response body. The body holds a few bytes per record, so it is parsed
+     * into a tree rather than streamed.
+     *
+     * @param body Response body as UTF-8 JSON
+     * @return Parsed response
+     * @throws JSONException if the body is not well-formed JSON
+     */
+    public static ProduceResponse parse(byte[] body) {
+        if (body == null || body.length == 0) {
+            return EMPTY;
+        }
+
+        JSONObject response = JSON.parseObject(body);
+        JSONArray offsets = response == null ? null : response.getJSONArray("offsets");
+        if (offsets == null || offsets.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] codes = new int[offsets.size()];
+        String[] messages = new String[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++) {
+            JSONObject offset = offsets.getJSONObject(i);
+            if (offset != null) {
+                Integer code = offset.getInteger("error_code");
+                codes[i] = code == null ? 0 : code;
+                messages[i] = offset.getString("error");
+            }
+        }
+        return new ProduceResponse(codes, messages);
+    }
+
+    /**
+     * Gets the number of record results in the response.
+     *
+     * @return Record count
+     */
+    public int size() {
+        return errorCodes.length;
+    }
+
+    /**
+     * Gets the number of records that were not written.
+     *
+     * @return Failed record count
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Checks whether a record was not written. Records the response has no result for are
+     * considered written, as the request as a whole was accepted.
+     *
+     * @param index Position of the record in the request
+     * @return true if the record failed
+     */
+    public boolean isFailed(int index) {
+        return index < errorCodes.length && errorCodes[index] != 0;
+    }
+
+    /**
+     * Checks whether a failed record may be written if it is sent again.
+     *
+     * @param index Position of the record in the request
+     * @return true if the record failed with a retriable error
+     */
+    public boolean isRetriable(int index) {
+        int code = index < errorCodes.length ? errorCodes[index] : 0;
+        return code == RETRIABLE_ERROR || code == RETRIABLE_PROXY_ERROR;
+    }
+
+    public int getErrorCode(int index) {
+        return index < errorCodes.length ? errorCodes[index] : 0;
+    }
+
+    public String getError(int index) {
+        return index < errors.length ? errors[index] : null;
+    }
+}
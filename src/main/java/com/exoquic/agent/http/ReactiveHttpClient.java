@@ -1,27 +1,52 @@
 package com.exoquic.agent.http;
 
+import com.alibaba.fastjson2.JSONException;
 import com.exoquic.agent.config.AgentConfig;
+import com.exoquic.agent.metrics.Counter;
+import com.exoquic.agent.metrics.Histogram;
+import com.exoquic.agent.metrics.MetricsRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
 import io.github.resilience4j.reactor.retry.RetryOperator;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelOption;
 import io.netty.handler.ssl.SslContextBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.UriBuilderFactory;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeoutException;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Reactive HTTP client for sending events to Exoquic .
@@ -31,86 +56,411 @@ public class ReactiveHttpClient {
     private static final Logger logger = LogManager.getLogger(ReactiveHttpClient.class);
     
     private final WebClient webClient;
+    private final UriBuilderFactory uriFactory;
+    private final ConcurrentMap<String, URI> topicUris = new ConcurrentHashMap<>();
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
     private final Retry retry;
+    private final RequestCompressor compressor;
+    private final ConnectionPoolStats poolStats = new ConnectionPoolStats();
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker circuitBreaker;
+    private final RetryBudget retryBudget;
+    private final long maxRetryDelayMs;
+    private final IntervalFunction backoff;
+    private final MetricsRegistry metrics;
+    private final Counter retries;
     
     /**
      * Creates a new ReactiveHttpClient with the specified configuration.
      * 
      * @param config Agent configuration
+     * @param metrics Registry for the request metrics
      */
-    public ReactiveHttpClient(AgentConfig config) {
-        HttpClient httpClient = HttpClient.create()
+    public ReactiveHttpClient(AgentConfig config, MetricsRegistry metrics) {
+        this.metrics = metrics;
+        boolean http2 = "h2".equals(config.getHttpProtocol());
+        ConnectionProvider connectionProvider = createConnectionProvider(config, http2);
+        
+        HttpClient httpClient = HttpClient.create(connectionProvider)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectionTimeout())
+                .option(ChannelOption.SO_KEEPALIVE, config.isHttpKeepAlive())
+                .keepAlive(config.isHttpKeepAlive())
                 .responseTimeout(Duration.ofMillis(config.getSocketTimeout()))
                 .secure(sslContextSpec -> {
+                    if (http2) {
+                        // Advertises h2 and http/1.1 through ALPN
+                        sslContextSpec.sslContext(Http2SslContextSpec.forClient());
+                        return;
+                    }
                     try {
                         sslContextSpec.sslContext(SslContextBuilder.forClient().build());
                     } catch (SSLException e) {
                         throw new RuntimeException(e);
                     }
                 });
+        if (http2) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
 
+        // Request URIs are expanded once per topic from the same factory the builder would create
+        // from the base URL, instead of from a template on every request
+        this.uriFactory = new DefaultUriBuilderFactory(config.getExoquicBaseUrl());
         this.webClient = WebClient.builder()
                 .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .baseUrl(config.getExoquicBaseUrl())
+                .uriBuilderFactory(uriFactory)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader("x-api-key", config.getApiKey())
                 .build();
         
+        this.maxRetryDelayMs = config.getMaxRetryDelayMs();
+        this.retryBudget = new RetryBudget(config.getRetryBudgetRatio(), config.getRetryBudgetMinPerSecond());
+        
+        // Exponential backoff with jitter, so failed requests do not retry in lockstep
+        this.backoff = IntervalFunction.ofExponentialRandomBackoff(
+                config.getInitialRetryDelayMs(), 2.0, 0.5, config.getMaxRetryDelayMs());
         RetryConfig retryConfig = RetryConfig.custom()
                 .maxAttempts(config.getMaxRetries())
-                .waitDuration(Duration.ofMillis(config.getInitialRetryDelayMs()))
-                .retryExceptions(IOException.class, TimeoutException.class, WebClientResponseException.class)
-                .retryOnResult(createRetryPredicate())
+                .intervalBiFunction((attempt, outcome) -> {
+                    Long retryAfter = outcome.isLeft() ? retryAfterMs(outcome.getLeft()) : null;
+                    return retryAfter != null ? retryAfter : backoff.apply(attempt);
+                })
+                .retryOnException(e -> isRetriable(e) && retryBudget.tryAcquire())
                 .build();
         
         this.retry = Retry.of("exoquic-http-retry", retryConfig);
+        this.retries = metrics.counter("exoquic_http_retries_total", "Produce requests sent again after a failure");
+        retry.getEventPublisher().onRetry(event -> retries.increment());
+        
+        CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.custom()
+                .failureRateThreshold(config.getCircuitBreakerFailureRate())
+                .slidingWindowSize(50)
+                .minimumNumberOfCalls(20)
+                .waitDurationInOpenState(Duration.ofMillis(config.getCircuitBreakerOpenMs()))
+                .permittedNumberOfCallsInHalfOpenState(5)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .recordException(ReactiveHttpClient::isUnhealthy)
+                .build();
+        this.circuitBreaker = CircuitBreaker.of("exoquic-http", circuitBreakerConfig);
+        circuitBreaker.getEventPublisher().onStateTransition(event ->
+                logger.warn("Exoquic circuit breaker {}", event.getStateTransition()));
+        this.compressor = createCompressor(config);
+        this.limiter = new AdaptiveConcurrencyLimiter(config.getConcurrencyLimitInitial(),
+                config.getConcurrencyLimitMin(), config.getConcurrencyLimitMax());
+        registerGauges(metrics);
         
         logger.info("ReactiveHttpClient initialized with endpoint: {}", config.getExoquicBaseUrl());
     }
     
     /**
-     * Creates a predicate to determine if a response should be retried.
+     * Registers gauges for the state of the limiter, connection pool, compressor, retry budget
+     * and circuit breaker.
      * 
-     * @return Predicate for retry condition
-     */
-    private Predicate<Object> createRetryPredicate() {
-        return response -> {
-            if (response instanceof WebClientResponseException) {
-                int statusCode = ((WebClientResponseException) response).getStatusCode().value();
-                // Retry on server errors (5xx)
-                return statusCode >= 500;
-            }
-            return false;
+     * @param metrics Registry to register the gauges with
+     */
+    private void registerGauges(MetricsRegistry metrics) {
+        metrics.gauge("exoquic_http_in_flight_requests", "Produce requests in flight", limiter::getInFlight);
+        metrics.gauge("exoquic_http_waiting_requests", "Produce requests waiting for the concurrency limit", limiter::getWaiting);
+        metrics.gauge("exoquic_http_concurrency_limit", "Current limit of produce requests in flight", limiter::getLimit);
+        metrics.gauge("exoquic_http_pool_connections", "Open connections to Exoquic", poolStats::getAcquired, "state", "acquired");
+        metrics.gauge("exoquic_http_pool_connections", "Open connections to Exoquic", poolStats::getIdle, "state", "idle");
+        metrics.gauge("exoquic_http_pool_pending_acquires", "Requests waiting for a connection", poolStats::getPendingAcquire);
+        metrics.gauge("exoquic_http_retry_budget_available", "Retries the retry budget currently allows", retryBudget::getAvailable);
+        metrics.counter("exoquic_http_retry_budget_exhausted_total", "Retries refused because the retry budget was exhausted",
+                retryBudget::getExhausted);
+        metrics.gauge("exoquic_http_circuit_breaker_state", "Circuit breaker state: 0 closed, 1 open, 2 half-open",
+                () -> switch (circuitBreaker.getState()) {
+                    case CLOSED -> 0;
+                    case OPEN, FORCED_OPEN -> 1;
+                    case HALF_OPEN -> 2;
+                    default -> -1;
+                });
+        if (compressor != null) {
+            metrics.gauge("exoquic_http_compression_level", "Current request compression level, 0 when off", compressor::getLevel);
+            metrics.counter("exoquic_http_uncompressed_bytes_total", "Size of request bodies before compression",
+                    compressor::getUncompressedBytes);
+            metrics.counter("exoquic_http_compressed_bytes_total", "Size of request bodies after compression",
+                    compressor::getCompressedBytes);
+            metrics.gauge("exoquic_http_compression_ratio", "Uncompressed over compressed size of request bodies",
+                    compressor::getCompressionRatio);
+            metrics.counter("exoquic_http_compress_seconds_total", "Time spent compressing request bodies",
+                    () -> compressor.getCompressNanos() / 1e9);
+        }
+    }
+    
+    /**
+     * Creates the connection pool for requests to Exoquic. In HTTP/2 mode each connection carries
+     * up to the configured number of concurrent streams, so a few connections serve many requests.
+     * 
+     * @param config Agent configuration
+     * @param http2 Whether HTTP/2 is negotiated
+     * @return Connection provider
+     */
+    private ConnectionProvider createConnectionProvider(AgentConfig config, boolean http2) {
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("exoquic")
+                .maxConnections(config.getHttpPoolMaxConnections())
+                .pendingAcquireMaxCount(config.getHttpPoolPendingAcquireMax())
+                .pendingAcquireTimeout(Duration.ofMillis(config.getHttpPoolPendingAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofMillis(config.getHttpPoolMaxIdleTimeMs()))
+                .maxLifeTime(Duration.ofMillis(config.getHttpPoolMaxLifeTimeMs()))
+                .evictInBackground(Duration.ofMillis(config.getHttpPoolMaxIdleTimeMs()))
+                .metrics(true, () -> poolStats);
+        if (http2) {
+            builder.allocationStrategy(Http2AllocationStrategy.builder()
+                    .maxConnections(config.getHttpPoolMaxConnections())
+                    .maxConcurrentStreams(config.getHttp2MaxConcurrentStreams())
+                    .minConnections(1)
+                    .build());
+        }
+        
+        logger.info("HTTP connection pool: protocol {}, max {} connections, {} pending acquires",
+                http2 ? "h2" : "http/1.1", config.getHttpPoolMaxConnections(), config.getHttpPoolPendingAcquireMax());
+        return builder.build();
+    }
+    
+    /**
+     * Gets the limiter of in-flight requests, for inspecting the current limit.
+     * 
+     * @return Concurrency limiter
+     */
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+    
+    /**
+     * Gets the statistics of the connection pool.
+     * 
+     * @return Connection pool statistics
+     */
+    public ConnectionPoolStats getPoolStats() {
+        return poolStats;
+    }
+    
+    /**
+     * Creates the request body compressor for the configured codec.
+     * 
+     * @param config Agent configuration
+     * @return Request compressor, or null if compression is disabled
+     */
+    private static RequestCompressor createCompressor(AgentConfig config) {
+        RequestCompressor.Codec codec = switch (config.getRequestCompression()) {
+            case "gzip" -> RequestCompressor.Codec.GZIP;
+            case "zstd" -> RequestCompressor.Codec.ZSTD;
+            default -> null;
         };
+        if (codec == null) {
+            return null;
+        }
+        
+        int level = config.getRequestCompressionLevel() > 0
+                ? Math.min(config.getRequestCompressionLevel(), codec.getMaxLevel())
+                : codec.getDefaultLevel();
+        return new RequestCompressor(codec, level, config.getRequestCompressionMinBytes(),
+                config.isRequestCompressionAdaptive(), PooledByteBufAllocator.DEFAULT);
+    }
+    
+    /**
+     * Gets the request body compressor, for inspecting its statistics.
+     * 
+     * @return Request compressor, or null if compression is disabled
+     */
+    public RequestCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Gets the circuit breaker guarding requests to Exoquic.
+     * 
+     * @return Circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+    
+    /**
+     * Gets the global retry budget.
+     * 
+     * @return Retry budget
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+    
+    /**
+     * Gets the delay before a request is sent again, growing exponentially with random jitter.
+     * 
+     * @param attempt Number of attempts made so far, starting at 1
+     * @return Delay before the next attempt
+     */
+    public Duration getRetryDelay(int attempt) {
+        return Duration.ofMillis(backoff.apply(attempt));
+    }
+    
+    /**
+     * Checks if a failed request may be retried: transport errors, timeouts and responses that
+     * {@link ProduceFailure} classifies as retriable. Requests refused by the open circuit breaker
+     * fail fast and are not retried.
+     * 
+     * @param e Failure of the request
+     * @return true if the request may be retried
+     */
+    private static boolean isRetriable(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return ProduceFailure.classify(e) == ProduceFailure.RETRIABLE;
+        }
+        return e instanceof IOException || e instanceof TimeoutException || e instanceof WebClientRequestException;
     }
     
     /**
-     * Sends an event to Exoquic
+     * Checks if a failure says the endpoint is unhealthy, as opposed to rejecting this request.
      * 
-     * @param payload JSON payload to send
+     * @param e Failure of the request
+     * @return true if the failure counts against the circuit breaker
+     */
+    private static boolean isUnhealthy(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return (status == 429 || status >= 500) && ProduceFailure.classify(e) == ProduceFailure.RETRIABLE;
+        }
+        return e instanceof IOException || e instanceof TimeoutException || e instanceof WebClientRequestException;
+    }
+    
+    /**
+     * Reads the delay requested by the {@code Retry-After} header of a 429 or 503 response,
+     * given either in seconds or as an HTTP date.
+     * 
+     * @param e Failure of the request
+     * @return Delay in milliseconds capped at the maximum retry delay, or null if none was requested
+     */
+    private Long retryAfterMs(Throwable e) {
+        if (!(e instanceof WebClientResponseException response)) {
+            return null;
+        }
+        int status = response.getStatusCode().value();
+        String retryAfter = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if ((status != 429 && status != 503) || retryAfter == null) {
+            return null;
+        }
+        
+        long delayMs;
+        try {
+            delayMs = Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException notSeconds) {
+            try {
+                ZonedDateTime until = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                delayMs = Duration.between(ZonedDateTime.now(until.getZone()), until).toMillis();
+            } catch (DateTimeParseException notDate) {
+                logger.debug("Ignoring malformed Retry-After header: {}", retryAfter);
+                return null;
+            }
+        }
+        return Math.max(0, Math.min(delayMs, maxRetryDelayMs));
+    }
+    
+    /**
+     * Sends a produce request carrying one or more events to Exoquic
+     * 
+     * @param payload JSON request body to send; ownership passes to this method, which releases it
+     *                once the send has completed, failed or been cancelled
      * @param topicName Name of the topic to send the event to
-     * @return Mono that completes when the event is sent
+     * @return Mono emitting the per-record results once the request is accepted, or erroring if it
+     *         could not be sent after retries; failures can be classified with {@link ProduceFailure}
      */
-    public Mono<Void> sendEvent(String payload, String topicName) {
-        if (payload == null || payload.isEmpty()) {
+    public Mono<ProduceResponse> sendEvent(ByteBuf payload, String topicName) {
+        if (payload == null || !payload.isReadable()) {
             logger.warn("Attempted to send empty payload, skipping");
+            if (payload != null) {
+                payload.release();
+            }
             return Mono.empty();
         }
         
+        // Compress once up front, so retries resend the same compressed body
+        ByteBuf wire = payload;
+        String contentEncoding = null;
+        if (compressor != null) {
+            ByteBuf compressed = compressor.compress(payload);
+            if (compressed != null) {
+                payload.release();
+                wire = compressed;
+                contentEncoding = compressor.getEncoding();
+            }
+        }
+        ByteBuf request = wire;
+        String encoding = contentEncoding;
+        retryBudget.onRequest();
+        
+        // Each (re)subscription writes its own retained view of the body, which Netty releases
+        // once written, so the original buffer stays intact across retries.
+        Mono<DataBuffer> body = Mono.fromSupplier(() -> bufferFactory.wrap(request.retainedDuplicate()));
+        AtomicLong sendStart = new AtomicLong();
+        
         return webClient.post()
-                .uri("/topics/{topicName}", topicName)
-                .headers(httpHeaders -> httpHeaders.add("Content-Type", "application/vnd.kafka.json.v2+json"))
-                .bodyValue(payload)
+                .uri(topicUris.computeIfAbsent(topicName, topic -> uriFactory.expand("/topics/{topicName}", topic)))
+                .headers(httpHeaders -> {
+                    httpHeaders.add("Content-Type", "application/vnd.kafka.json.v2+json");
+                    if (encoding != null) {
+                        httpHeaders.add(HttpHeaders.CONTENT_ENCODING, encoding);
+                    }
+                })
+                .body(BodyInserters.fromDataBuffers(body))
                 .retrieve()
-                .bodyToMono(Void.class)
-                .doOnSubscribe(s -> logger.debug("Sending event to Exoquic topic {}: {}", topicName, payload))
-                .doOnSuccess(v -> logger.debug("Event sent successfully to topic {}", topicName))
-                .doOnError(e -> logger.error("Error sending event to Exoquic topic {}: {}", topicName, e.getMessage()))
+                .toEntity(byte[].class)
+                .map(entity -> {
+                    recordRequest(topicName, String.valueOf(entity.getStatusCode().value()), sendStart.get(), request.readableBytes());
+                    return parseResponse(entity.getBody());
+                })
+                .doOnSubscribe(s -> {
+                    sendStart.set(System.nanoTime());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Sending event to Exoquic topic {} ({} bytes)", topicName, request.readableBytes());
+                    }
+                })
+                .doOnSuccess(response -> {
+                    if (compressor != null) {
+                        compressor.recordSend(System.nanoTime() - sendStart.get());
+                    }
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Event sent successfully to topic {} ({} records failed)", topicName, response.getFailedCount());
+                    }
+                })
+                .doOnError(e -> {
+                    String status = e instanceof WebClientResponseException response
+                            ? String.valueOf(response.getStatusCode().value()) : "error";
+                    recordRequest(topicName, status, sendStart.get(), request.readableBytes());
+                    logger.error("Error sending event to Exoquic topic {}: {}", topicName, e.getMessage());
+                })
+                .transform(limiter::limit)
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
                 .transformDeferred(RetryOperator.of(retry))
-                .onErrorResume(e -> {
-                    logger.error("Failed to send event to topic {} after retries: {}", topicName, e.getMessage());
-                    return Mono.empty();
-                });
+                .doOnError(e -> logger.error("Failed to send event to topic {} after retries: {}", topicName, e.getMessage()))
+                .doFinally(signal -> request.release());
+    }
+    
+    /**
+     * Records the latency and size of one attempt of a produce request.
+     * 
+     * @param topicName Topic the request was for
+     * @param status HTTP status code, or "error" if no response was received
+     * @param startNanos Time the attempt started
+     * @param bytes Size of the request body as sent
+     */
+    private void recordRequest(String topicName, String status, long startNanos, int bytes) {
+        metrics.histogram("exoquic_http_request_duration_seconds", "Latency of produce requests",
+                Histogram.LATENCY_SECONDS, "topic", topicName, "status", status).observeNanos(System.nanoTime() - startNanos);
+        metrics.counter("exoquic_http_sent_bytes_total", "Request body bytes sent, after compression", "topic", topicName)
+                .add(bytes);
+    }
+    
+    /**
+     * Parses the body of an accepted produce request. A body that cannot be parsed says nothing
+     * about individual records, so the request counts as fully written.
+     */
+    private ProduceResponse parseResponse(byte[] body) {
+        try {
+            return ProduceResponse.parse(body);
+        } catch (JSONException e) {
+            logger.warn("Ignoring malformed produce response: {}", e.getMessage());
+            return ProduceResponse.EMPTY;
+        }
     }
 }
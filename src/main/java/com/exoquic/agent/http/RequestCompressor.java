@@ -0,0 +1,289 @@
+package com.exoquic.agent.http;
+
+import com.github.luben.zstd.Zstd;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses produce request bodies with gzip or zstd.
+ * <p>
+ * Bodies smaller than the minimum size are sent as they are, as are bodies that do not get
+ * smaller. With the adaptive policy enabled, the compression level is revisited every second:
+ * it is lowered, down to switching compression off, while the process is CPU-bound or compressing
+ * takes a large share of the time spent per request, and raised while the CPU is mostly idle and
+ * the time goes to the network.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class RequestCompressor {
+    private static final Logger logger = LogManager.getLogger(RequestCompressor.class);
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double HIGH_CPU_LOAD = 0.85;
+    private static final double LOW_CPU_LOAD = 0.6;
+    /** Share of compress-and-send time spent compressing above which the level is lowered. */
+    private static final double HIGH_COMPRESS_SHARE = 0.5;
+    /** Share of compress-and-send time spent compressing below which the level may be raised. */
+    private static final double LOW_COMPRESS_SHARE = 0.1;
+
+    /**
+     * Supported compression algorithms.
+     */
+    public enum Codec {
+        GZIP("gzip", 9, 6),
+        ZSTD("zstd", 19, 3);
+
+        private final String encoding;
+        private final int maxLevel;
+        private final int defaultLevel;
+
+        Codec(String encoding, int maxLevel, int defaultLevel) {
+            this.encoding = encoding;
+            this.maxLevel = maxLevel;
+            this.defaultLevel = defaultLevel;
+        }
+
+        /**
+         * Gets the {@code Content-Encoding} value of this codec.
+         *
+         * @return Content encoding
+         */
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public int getMaxLevel() {
+            return maxLevel;
+        }
+
+        public int getDefaultLevel() {
+            return defaultLevel;
+        }
+    }
+
+    private final Codec codec;
+    private final int minBytes;
+    private final boolean adaptive;
+    private final ByteBufAllocator allocator;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    /** Current compression level; 0 means compression is switched off. */
+    private volatile int level;
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder windowCompressNanos = new LongAdder();
+    private final LongAdder windowSendNanos = new LongAdder();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a new RequestCompressor.
+     *
+     * @param codec Compression algorithm
+     * @param level Initial compression level, between 1 and the codec's maximum level
+     * @param minBytes Minimum body size in bytes to compress
+     * @param adaptive Whether to adjust the level to the CPU and network load
+     * @param allocator Allocator for compressed buffers
+     */
+    public RequestCompressor(Codec codec, int level, int minBytes, boolean adaptive, ByteBufAllocator allocator) {
+        this.codec = codec;
+        this.level = level;
+        this.minBytes = minBytes;
+        this.adaptive = adaptive;
+        this.allocator = allocator;
+        logger.info("Request compression enabled: {} level {}, minimum {} bytes, adaptive {}",
+                codec.getEncoding(), level, minBytes, adaptive);
+    }
+
+    /**
+     * Gets the {@code Content-Encoding} value of compressed bodies.
+     *
+     * @return Content encoding
+     */
+    public String getEncoding() {
+        return codec.getEncoding();
+    }
+
+    /**
+     * Compresses a request body, if it is large enough and compression is switched on.
+     * The body itself is neither consumed nor released.
+     *
+     * @param body Request body
+     * @return Compressed body owned by the caller, or null if the body should be sent as it is
+     */
+    public ByteBuf compress(ByteBuf body) {
+        int currentLevel = level;
+        int length = body.readableBytes();
+        if (currentLevel == 0 || length < minBytes) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        ByteBuf compressed;
+        try {
+            compressed = codec == Codec.ZSTD ? zstd(body, currentLevel) : gzip(body, currentLevel);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error compressing request body, sending it uncompressed: {}", e.getMessage());
+            return null;
+        }
+        long elapsed = System.nanoTime() - start;
+        compressNanos.add(elapsed);
+        windowCompressNanos.add(elapsed);
+
+        if (compressed.readableBytes() >= length) {
+            compressed.release();
+            return null;
+        }
+        uncompressedBytes.add(length);
+        compressedBytes.add(compressed.readableBytes());
+        return compressed;
+    }
+
+    /**
+     * Records the time a request took on the network, which drives the adaptive policy.
+     *
+     * @param nanos Time from sending the request until its response, in nanoseconds
+     */
+    public void recordSend(long nanos) {
+        windowSendNanos.add(nanos);
+        if (adaptive) {
+            maybeAdjust();
+        }
+    }
+
+    /**
+     * Gets the current compression level.
+     *
+     * @return Compression level, or 0 while compression is switched off
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the ratio of uncompressed to compressed size over all compressed bodies.
+     *
+     * @return Compression ratio, or 1 if nothing has been compressed yet
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 1.0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    /**
+     * Gets the total time spent compressing.
+     *
+     * @return Compression time in nanoseconds
+     */
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    private void maybeAdjust() {
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        if (now - start < ADJUST_INTERVAL_NANOS || !windowStart.compareAndSet(start, now)) {
+            return;
+        }
+
+        long compressing = windowCompressNanos.sumThenReset();
+        long sending = windowSendNanos.sumThenReset();
+        double compressShare = compressing + sending == 0 ? 0 : (double) compressing / (compressing + sending);
+        double cpuLoad = processCpuLoad();
+
+        int current = level;
+        int next = current;
+        if (current > 0 && (cpuLoad > HIGH_CPU_LOAD || compressShare > HIGH_COMPRESS_SHARE)) {
+            next = current - 1;
+        } else if (current < codec.getMaxLevel() && cpuLoad >= 0 && cpuLoad < LOW_CPU_LOAD
+                && compressShare < LOW_COMPRESS_SHARE && sending > 0) {
+            next = current + 1;
+        }
+
+        if (next != current) {
+            level = next;
+            logger.debug("Compression level {} -> {} (CPU load {}, compress share {})",
+                    current, next, String.format("%.2f", cpuLoad), String.format("%.2f", compressShare));
+        }
+    }
+
+    private double processCpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getProcessCpuLoad();
+        }
+        double perCpu = os.getSystemLoadAverage() / os.getAvailableProcessors();
+        return perCpu < 0 ? -1 : perCpu;
+    }
+
+    private ByteBuf gzip(ByteBuf body, int level) throws IOException {
+        ByteBuf out = allocator.buffer(body.readableBytes() / 4 + 64);
+        try (GZIPOutputStream gzip = new LeveledGzipOutputStream(new ByteBufOutputStream(out), level)) {
+            body.getBytes(body.readerIndex(), gzip, body.readableBytes());
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        return out;
+    }
+
+    private ByteBuf zstd(ByteBuf body, int level) {
+        int length = body.readableBytes();
+        int bound = (int) Zstd.compressBound(length);
+        ByteBuf out = allocator.directBuffer(bound);
+        try {
+            ByteBuffer dst = out.internalNioBuffer(0, bound);
+            long size;
+            if (body.isDirect() && body.nioBufferCount() == 1) {
+                ByteBuffer src = body.internalNioBuffer(body.readerIndex(), length);
+                size = Zstd.compressDirectByteBuffer(dst, dst.position(), bound, src, src.position(), length, level);
+            } else {
+                // zstd-jni reads direct memory only, so copy heap bodies such as spilled requests first
+                ByteBuf direct = allocator.directBuffer(length).writeBytes(body, body.readerIndex(), length);
+                try {
+                    ByteBuffer src = direct.internalNioBuffer(0, length);
+                    size = Zstd.compressDirectByteBuffer(dst, dst.position(), bound, src, src.position(), length, level);
+                } finally {
+                    direct.release();
+                }
+            }
+            if (Zstd.isError(size)) {
+                throw new IllegalStateException(Zstd.getErrorName(size));
+            }
+            out.writerIndex((int) size);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gzip stream with a configurable deflate level.
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        private LeveledGzipOutputStream(ByteBufOutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
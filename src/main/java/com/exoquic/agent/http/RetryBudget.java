@@ -0,0 +1,109 @@
+package com.exoquic.agent.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Global budget that bounds retries to a fraction of the requests being sent.
+ * <p>
+ * Every request deposits {@code ratio} of a token and every retry withdraws a whole token, so
+ * retries add at most that fraction of extra load on top of the normal traffic, however many
+ * requests fail at once. A small number of retries per second is always allowed, so requests
+ * can still be retried when there is little traffic.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class RetryBudget {
+    /** Token amounts are kept in thousandths of a token. */
+    private static final long TOKEN = 1000;
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long depositPerRequest;
+    private final long refillPerSecond;
+    private final long maxBalance;
+    /** Time the minimum rate takes to refill an empty budget, beyond which elapsed time adds nothing. */
+    private final long refillNanos;
+    private final LongAdder exhausted = new LongAdder();
+
+    private long balance;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Creates a new RetryBudget.
+     *
+     * @param ratio Retries allowed per request sent, e.g. 0.1 for one retry per ten requests
+     * @param minRetriesPerSecond Retries allowed per second regardless of traffic
+     */
+    public RetryBudget(double ratio, int minRetriesPerSecond) {
+        this.depositPerRequest = Math.round(ratio * TOKEN);
+        this.refillPerSecond = minRetriesPerSecond * TOKEN;
+        // Allow bursts of up to ten seconds' worth of the minimum rate, or of a hundred deposits
+        this.maxBalance = Math.max(refillPerSecond * 10, depositPerRequest * 100);
+        this.refillNanos = refillPerSecond > 0 ? maxBalance * SECOND_NANOS / refillPerSecond + 1 : 0;
+        this.balance = refillPerSecond;
+    }
+
+    /**
+     * Records that a request is sent for the first time.
+     */
+    public synchronized void onRequest() {
+        balance = Math.min(maxBalance, balance + depositPerRequest);
+    }
+
+    /**
+     * Takes a token for a retry, if the budget allows one.
+     *
+     * @return true if the retry may be made
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (balance < TOKEN) {
+            exhausted.increment();
+            return false;
+        }
+        balance -= TOKEN;
+        return true;
+    }
+
+    /**
+     * Adds the minimum rate's share of the time since the last refill. Only the time that was
+     * turned into whole thousandths of a token is consumed, so frequent calls still refill.
+     *
+     * @param now Current {@link System#nanoTime()}
+     */
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (refillPerSecond == 0 || elapsed <= 0) {
+            return;
+        }
+        if (elapsed >= refillNanos) {
+            balance = maxBalance;
+            lastRefillNanos = now;
+            return;
+        }
+        long credit = refillPerSecond * elapsed / SECOND_NANOS;
+        if (credit == 0) {
+            return;
+        }
+        balance = Math.min(maxBalance, balance + credit);
+        lastRefillNanos = balance == maxBalance ? now : lastRefillNanos + credit * SECOND_NANOS / refillPerSecond;
+    }
+
+    /**
+     * Gets the number of tokens available for retries.
+     *
+     * @return Available retries
+     */
+    public synchronized double getAvailable() {
+        return (double) balance / TOKEN;
+    }
+
+    /**
+     * Gets the number of retries refused because the budget was exhausted.
+     *
+     * @return Refused retry count
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+}
@@ -0,0 +1,611 @@
+package com.exoquic.agent.http;
+
+import com.exoquic.agent.storage.SegmentLog;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Holds produce requests that could not be delivered in a {@link SegmentLog} on local disk, and
+ * delivers them once Exoquic is reachable again.
+ * <p>
+ * Spilling is tracked per dispatch lane. While a lane has spilled requests, its new requests are
+ * spilled behind them rather than sent directly, so events keep their capture order per channel;
+ * lanes without spilled requests keep sending directly, and a lane goes back to sending directly
+ * as soon as its own spilled requests are delivered. The drainer reads ahead of the oldest spilled
+ * request and sends requests concurrently across lanes, through the HTTP client's concurrency
+ * limit, and one after another within a lane, so a request that is retried at a fixed interval
+ * only holds up its own lane. The requests queued on a lane for the same topic are sent together,
+ * up to the produce batch limits. Requests are removed from the log once they and every older
+ * request are delivered. Requests recovered from a previous run belong to no known lane, so every
+ * lane spills until they are delivered.
+ * <p>
+ * Each spilled request keeps the boundaries of its records. When Exoquic writes some records and
+ * fails others with a retriable error, only the failed records are sent again, and records it
+ * rejects for good are dead-lettered. Which records are written is only kept in memory, so after
+ * a restart the whole request is sent again.
+ * <p>
+ * Every append forces the record to disk, so appends run on a dedicated writer thread rather than
+ * on the thread that completed the failed send, which is normally a network event loop shared
+ * with other connections.
+ * <p>
+ * Each record holds {@code [int lane][short topic length][topic UTF-8][int record count]
+ * [int start, int end per record][request body]}, with the record offsets relative to the body.
+ */
+public class SpillQueue {
+    private static final Logger logger = LogManager.getLogger(SpillQueue.class);
+    private static final int READ_AHEAD_REQUESTS = 1024;
+    private static final long READ_AHEAD_BYTES = 16L * 1024 * 1024;
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private final SegmentLog log;
+    private final ReactiveHttpClient httpClient;
+    private final Duration retryInterval;
+    private final DeadLetterQueue deadLetters;
+    private final int laneCount;
+    private final int maxRequestRecords;
+    private final int maxRequestBytes;
+    /** Spilled requests of each lane that have not been delivered yet. */
+    private final AtomicLongArray lanePending;
+    /** Requests recovered from a previous run that have not been delivered yet. */
+    private final AtomicLong recoveredPending;
+    private final long recovered;
+    /** Requests read from the log and not removed yet, oldest first; guarded by this. */
+    private final Deque<SpilledRequest> inFlight = new ArrayDeque<>();
+    /** Number and size of the requests in flight that have not been delivered; guarded by this. */
+    private int undelivered;
+    private long undeliveredBytes;
+    /** Requests read for each lane that have not been sent yet; guarded by this. */
+    private final List<Deque<SpilledRequest>> laneQueues = new ArrayList<>();
+    /** Whether each lane is sending a delivery; guarded by this. */
+    private final boolean[] laneBusy;
+    /** Requests read from the log since it was opened; guarded by this. */
+    private long read;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "exoquic-spill");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Scheduler writerScheduler = Schedulers.fromExecutorService(writer);
+
+    /**
+     * Creates a new SpillQueue.
+     *
+     * @param log Segment log holding the spilled requests
+     * @param httpClient HTTP client used to deliver spilled requests
+     * @param retryInterval Time between delivery attempts while the endpoint is unreachable
+     * @param deadLetters Queue for spilled requests that Exoquic rejects for good, or null to drop them
+     * @param laneCount Number of dispatch lanes requests are spilled from
+     * @param maxRequestRecords Maximum number of records sent in one request
+     * @param maxRequestBytes Maximum size of the spilled requests sent together in one request
+     */
+    public SpillQueue(SegmentLog log, ReactiveHttpClient httpClient, Duration retryInterval, DeadLetterQueue deadLetters,
+                      int laneCount, int maxRequestRecords, int maxRequestBytes) {
+        this.log = log;
+        this.httpClient = httpClient;
+        this.retryInterval = retryInterval;
+        this.deadLetters = deadLetters;
+        this.laneCount = laneCount;
+        this.maxRequestRecords = maxRequestRecords;
+        this.maxRequestBytes = maxRequestBytes;
+        this.lanePending = new AtomicLongArray(laneCount);
+        this.laneBusy = new boolean[laneCount];
+        for (int lane = 0; lane < laneCount; lane++) {
+            laneQueues.add(new ArrayDeque<>());
+        }
+        this.recovered = log.getPendingRecords();
+        this.recoveredPending = new AtomicLong(recovered);
+    }
+
+    /**
+     * Starts delivering requests recovered from a previous run, if there are any.
+     */
+    public void start() {
+        if (!log.isEmpty()) {
+            logger.info("Delivering {} spilled requests left from a previous run", log.getPendingRecords());
+            startDrain();
+        }
+    }
+
+    /**
+     * Spills a request if earlier requests of its lane are still spilled, so it is delivered after
+     * them. The body is not consumed or released, and must stay readable until the result is emitted.
+     *
+     * @param lane Dispatch lane the request was sent from
+     * @param topicName Topic the request is for
+     * @param body Request body
+     * @return Mono emitting true if the request was spilled, false if it should be sent directly
+     */
+    public Mono<Boolean> offerIfSpilling(int lane, String topicName, ByteBuf body) {
+        if (!isSpilling(lane)) {
+            return Mono.just(false);
+        }
+        return onWriter(() -> isSpilling(lane) && append(lane, topicName, body));
+    }
+
+    /**
+     * Spills a request that could not be delivered. The body is not consumed or released, and must
+     * stay readable until the result is emitted.
+     *
+     * @param lane Dispatch lane the request was sent from
+     * @param topicName Topic the request is for
+     * @param body Request body
+     * @return Mono emitting true if the request is stored, false if it could not be stored
+     */
+    public Mono<Boolean> offer(int lane, String topicName, ByteBuf body) {
+        return onWriter(() -> append(lane, topicName, body));
+    }
+
+    private boolean isSpilling(int lane) {
+        return lanePending.get(lane) > 0 || recoveredPending.get() > 0;
+    }
+
+    private Mono<Boolean> onWriter(Callable<Boolean> append) {
+        return Mono.fromCallable(append)
+                .subscribeOn(writerScheduler)
+                .onErrorResume(e -> {
+                    logger.error("Error spilling request: {}", e.toString());
+                    return Mono.just(false);
+                });
+    }
+
+    private boolean append(int lane, String topicName, ByteBuf body) {
+        int[] records;
+        try {
+            records = ProduceRequestBody.findRecords(body);
+        } catch (IllegalArgumentException e) {
+            // Spilled without boundaries, the request is only ever sent as a whole
+            records = new int[0];
+        }
+        ByteBuf header = Unpooled.buffer(10 + ByteBufUtil.utf8MaxBytes(topicName) + records.length * 4);
+        header.writeInt(lane);
+        header.writeShort(ByteBufUtil.utf8Bytes(topicName));
+        header.writeCharSequence(topicName, StandardCharsets.UTF_8);
+        header.writeInt(records.length / 2);
+        for (int offset : records) {
+            header.writeInt(offset);
+        }
+
+        // Counted before the append, so the drainer never sees the request before its lane spills
+        lanePending.incrementAndGet(lane);
+        try {
+            if (!log.append(header, body)) {
+                lanePending.decrementAndGet(lane);
+                logger.error("Spill queue is full ({} requests, {} bytes); request for topic {} was not stored",
+                        log.getPendingRecords(), log.getPendingBytes(), topicName);
+                return false;
+            }
+        } catch (IOException e) {
+            lanePending.decrementAndGet(lane);
+            logger.error("Error spilling request for topic {}: {}", topicName, e.getMessage(), e);
+            return false;
+        } finally {
+            header.release();
+        }
+
+        if (log.getPendingRecords() == 1) {
+            logger.warn("Exoquic is not accepting requests; spilling requests to disk until it recovers");
+        }
+        startDrain();
+        return true;
+    }
+
+    /**
+     * Gets the number of requests waiting to be delivered.
+     *
+     * @return Spilled request count
+     */
+    public long getPendingRequests() {
+        return log.getPendingRecords();
+    }
+
+    /**
+     * Gets the size of the requests waiting to be delivered.
+     *
+     * @return Spilled bytes
+     */
+    public long getPendingBytes() {
+        return log.getPendingBytes();
+    }
+
+    /**
+     * Finishes the appends still queued, then closes the underlying log. Requests that are still
+     * spilled are delivered on the next start.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private void startDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        Mono.fromRunnable(this::readAhead)
+                .repeatWhen(rounds -> rounds
+                        .takeWhile(round -> !isDrained())
+                        .delayElements(POLL_INTERVAL))
+                .doFinally(signal -> {
+                    draining.set(false);
+                    // A request may have been spilled after the last check for pending requests
+                    if (!log.isEmpty()) {
+                        startDrain();
+                    } else {
+                        logger.info("All spilled requests delivered");
+                    }
+                })
+                .subscribe(null, e -> logger.error("Error draining spilled requests: {}", e.getMessage(), e));
+    }
+
+    /**
+     * Reads the spilled requests after the ones in flight, up to the read-ahead limits, queues them
+     * on their lanes and starts sending on the lanes that are idle.
+     */
+    private void readAhead() {
+        List<Delivery> started = new ArrayList<>();
+        synchronized (this) {
+            if (undelivered >= READ_AHEAD_REQUESTS || undeliveredBytes >= READ_AHEAD_BYTES) {
+                return;
+            }
+            List<ByteBuf> entries = log.peek(inFlight.size(), READ_AHEAD_REQUESTS - undelivered,
+                    READ_AHEAD_BYTES - undeliveredBytes);
+            for (ByteBuf entry : entries) {
+                SpilledRequest request = SpilledRequest.decode(entry, laneCount, read++ < recovered);
+                inFlight.add(request);
+                undelivered++;
+                undeliveredBytes += request.size;
+                laneQueues.get(request.lane).add(request);
+            }
+            for (int lane = 0; lane < laneCount; lane++) {
+                if (!laneBusy[lane] && !laneQueues.get(lane).isEmpty()) {
+                    started.add(nextDelivery(lane));
+                }
+            }
+        }
+        started.forEach(this::start);
+    }
+
+    private synchronized boolean isDrained() {
+        return inFlight.isEmpty() && log.isEmpty();
+    }
+
+    /**
+     * Takes the next requests queued on a lane, as many as can be sent together.
+     *
+     * @return Next delivery of the lane, or null if the lane is idle now
+     */
+    private Delivery nextDelivery(int lane) {
+        Deque<SpilledRequest> queue = laneQueues.get(lane);
+        SpilledRequest first = queue.poll();
+        laneBusy[lane] = first != null;
+        if (first == null) {
+            return null;
+        }
+        Delivery delivery = new Delivery(first);
+        while (!queue.isEmpty() && delivery.tryAdd(queue.peek(), maxRequestRecords, maxRequestBytes)) {
+            queue.poll();
+        }
+        return delivery;
+    }
+
+    private void start(Delivery delivery) {
+        deliver(delivery)
+                .then(Mono.fromCallable(() -> delivered(delivery)))
+                .subscribe(this::start, e -> logger.error("Error delivering spilled requests: {}", e.getMessage(), e));
+    }
+
+    /**
+     * Marks the requests of a delivery as delivered, and removes delivered requests from the log
+     * once every older request is delivered.
+     *
+     * @return Next delivery of the lane, or null if the lane is idle now
+     */
+    private synchronized Delivery delivered(Delivery delivery) {
+        for (SpilledRequest request : delivery.requests) {
+            if (request.recovered) {
+                recoveredPending.decrementAndGet();
+            } else {
+                lanePending.decrementAndGet(request.lane);
+            }
+            request.delivered = true;
+            request.entry.release();
+            undelivered--;
+            undeliveredBytes -= request.size;
+        }
+        while (!inFlight.isEmpty() && inFlight.peek().delivered) {
+            inFlight.poll();
+            log.remove();
+        }
+        return nextDelivery(delivery.lane);
+    }
+
+    /**
+     * Sends a delivery until every record is written or rejected for good, retrying at a fixed
+     * interval while any record failed with a retriable error.
+     */
+    private Mono<Void> deliver(Delivery delivery) {
+        return Mono.defer(() -> send(delivery))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, retryInterval)
+                        .doBeforeRetry(signal -> logger.debug("Spilled requests for topic {} not delivered, retrying in {}: {}",
+                                delivery.topic, retryInterval, signal.failure().getMessage())));
+    }
+
+    private Mono<Void> send(Delivery delivery) {
+        return httpClient.sendEvent(delivery.pendingBody(), delivery.topic)
+                .defaultIfEmpty(ProduceResponse.EMPTY)
+                .flatMap(response -> {
+                    List<BitSet> rejected = delivery.apply(response);
+                    for (int i = 0; i < rejected.size(); i++) {
+                        BitSet records = rejected.get(i);
+                        if (!records.isEmpty()) {
+                            SpilledRequest request = delivery.requests.get(i);
+                            deadLetter(request, request.body(records), records.cardinality(), describe(response));
+                        }
+                    }
+                    return delivery.isDone()
+                            ? Mono.<Void>empty()
+                            : Mono.<Void>error(new IllegalStateException(delivery.pendingCount() + " records were not written"));
+                })
+                .onErrorResume(e -> ProduceFailure.classify(e).isPermanent(), e -> {
+                    for (SpilledRequest request : delivery.requests) {
+                        if (!request.isDone()) {
+                            deadLetter(request, request.pendingBody(), request.pendingCount(), e.getMessage());
+                            request.clear();
+                        }
+                    }
+                    return Mono.empty();
+                });
+    }
+
+    private void deadLetter(SpilledRequest request, ByteBuf body, int recordCount, String error) {
+        try {
+            if (deadLetters != null && deadLetters.offer(request.topic, null, -1, recordCount, error, body, null)) {
+                logger.error("Spilled records for topic {} were rejected and dead-lettered: {}", request.topic, error);
+            } else {
+                logger.error("Spilled records for topic {} were rejected and dropped: {}", request.topic, error);
+            }
+        } finally {
+            body.release();
+        }
+    }
+
+    private static String describe(ProduceResponse response) {
+        for (int i = 0; i < response.size(); i++) {
+            if (response.isFailed(i) && !response.isRetriable(i)) {
+                return "error " + response.getErrorCode(i) + ": " + response.getError(i);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Consecutive spilled requests of one lane for one topic, sent together in one request.
+     */
+    private static final class Delivery {
+        private final int lane;
+        private final String topic;
+        private final List<SpilledRequest> requests = new ArrayList<>();
+        private int recordCount;
+        private long bytes;
+
+        private Delivery(SpilledRequest first) {
+            this.lane = first.lane;
+            this.topic = first.topic;
+            add(first);
+        }
+
+        private void add(SpilledRequest request) {
+            requests.add(request);
+            recordCount += request.pendingCount();
+            bytes += request.body.readableBytes();
+        }
+
+        /**
+         * Adds a request if it can be sent together with the requests already in this delivery.
+         *
+         * @return Whether the request was added
+         */
+        boolean tryAdd(SpilledRequest request, int maxRecords, long maxBytes) {
+            if (!request.topic.equals(topic) || !request.hasBoundaries() || !requests.get(0).hasBoundaries()
+                    || recordCount + request.pendingCount() > maxRecords
+                    || bytes + request.body.readableBytes() > maxBytes) {
+                return false;
+            }
+            add(request);
+            return true;
+        }
+
+        boolean isDone() {
+            for (SpilledRequest request : requests) {
+                if (!request.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int pendingCount() {
+            int count = 0;
+            for (SpilledRequest request : requests) {
+                count += request.pendingCount();
+            }
+            return count;
+        }
+
+        /**
+         * Builds a body of the records that still have to be written. The caller owns it.
+         */
+        ByteBuf pendingBody() {
+            if (requests.size() == 1) {
+                return requests.get(0).pendingBody();
+            }
+            List<ProduceRequestBody.Selection> selections = new ArrayList<>(requests.size());
+            for (SpilledRequest request : requests) {
+                selections.add(new ProduceRequestBody.Selection(request.body, request.records, request.pending));
+            }
+            return ProduceRequestBody.select(selections);
+        }
+
+        /**
+         * Applies the results of sending the pending records: written and rejected records are no
+         * longer pending, records that failed with a retriable error stay pending.
+         *
+         * @return Records that were rejected for good, per request
+         */
+        List<BitSet> apply(ProduceResponse response) {
+            SpilledRequest first = requests.get(0);
+            if (!first.hasBoundaries()) {
+                first.applyWhole(response);
+                return List.of();
+            }
+            if (response.size() != pendingCount()) {
+                // Results that do not match the records sent say nothing about individual records
+                if (response.getFailedCount() == 0) {
+                    requests.forEach(SpilledRequest::clear);
+                }
+                return List.of();
+            }
+            List<BitSet> rejected = new ArrayList<>(requests.size());
+            int offset = 0;
+            for (SpilledRequest request : requests) {
+                int count = request.pendingCount();
+                rejected.add(request.apply(response, offset));
+                offset += count;
+            }
+            return rejected;
+        }
+    }
+
+    /**
+     * A spilled request read from the log, with the records that still have to be written.
+     */
+    private static final class SpilledRequest {
+        private final int lane;
+        private final String topic;
+        private final boolean recovered;
+        /** Log record the request was read from, which holds the body. */
+        private final ByteBuf entry;
+        private final int size;
+        private final ByteBuf body;
+        /** Record boundaries, or empty if the request can only be sent as a whole. */
+        private final int[] records;
+        private final BitSet pending = new BitSet();
+        private boolean wholePending = true;
+        /** Whether the request is delivered; guarded by the SpillQueue. */
+        private boolean delivered;
+
+        private SpilledRequest(int lane, String topic, boolean recovered, ByteBuf entry, int size, ByteBuf body,
+                               int[] records) {
+            this.lane = lane;
+            this.topic = topic;
+            this.recovered = recovered;
+            this.entry = entry;
+            this.size = size;
+            this.body = body;
+            this.records = records;
+            pending.set(0, records.length / 2);
+        }
+
+        static SpilledRequest decode(ByteBuf entry, int laneCount, boolean recovered) {
+            int size = entry.readableBytes();
+            // Recovered requests may come from a run with a different number of lanes
+            int lane = Math.floorMod(entry.readInt(), laneCount);
+            String topic = entry.readCharSequence(entry.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+            int[] records = new int[entry.readInt() * 2];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = entry.readInt();
+            }
+            return new SpilledRequest(lane, topic, recovered, entry, size, entry.slice(), records);
+        }
+
+        boolean hasBoundaries() {
+            return records.length > 0;
+        }
+
+        boolean isDone() {
+            return hasBoundaries() ? pending.isEmpty() : !wholePending;
+        }
+
+        int pendingCount() {
+            return pending.cardinality();
+        }
+
+        void clear() {
+            pending.clear();
+            wholePending = false;
+        }
+
+        /**
+         * Builds a body of the records that still have to be written. The caller owns it.
+         */
+        ByteBuf pendingBody() {
+            return !hasBoundaries() || pending.cardinality() == records.length / 2
+                    ? body.retainedDuplicate() : body(pending);
+        }
+
+        ByteBuf body(BitSet selected) {
+            return ProduceRequestBody.select(body, records, selected);
+        }
+
+        /**
+         * Applies the results of sending this request as a whole: without record boundaries, a
+         * retriable failure of any record sends the whole request again.
+         */
+        void applyWhole(ProduceResponse response) {
+            wholePending = false;
+            for (int i = 0; i < response.size(); i++) {
+                if (response.isRetriable(i)) {
+                    wholePending = true;
+                }
+            }
+        }
+
+        /**
+         * Applies the results of sending the pending records, which start at the given result.
+         *
+         * @return Records that were rejected for good
+         */
+        BitSet apply(ProduceResponse response, int offset) {
+            BitSet rejected = new BitSet();
+            int result = offset;
+            for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1), result++) {
+                if (!response.isFailed(result)) {
+                    pending.clear(i);
+                } else if (!response.isRetriable(result)) {
+                    pending.clear(i);
+                    rejected.set(i);
+                }
+            }
+            return rejected;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.exoquic.agent.logging;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug channel for messages that would otherwise be written for every event, which at full
+ * throughput costs more than the work being logged.
+ * <p>
+ * A sampled logger writes to its own logger named {@code sampled.<class name>}, so per-event
+ * diagnostics are enabled separately from the class's regular debug output, and writes at most
+ * the configured number of messages per second. Messages over the limit are dropped and counted,
+ * and the count is reported at the start of the next second. Callers check {@link #sample()}
+ * before building a message, so that nothing is computed or allocated for a dropped message:
+ * <pre>
+ * if (sampled.sample()) {
+ *     sampled.debug("Received change event: {}", event);
+ * }
+ * </pre>
+ */
+public class SampledLogger {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Logger logger;
+    private final int messagesPerSecond;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger sampled = new AtomicInteger();
+
+    /**
+     * Creates a new SampledLogger.
+     *
+     * @param owner Class whose per-event messages are sampled
+     * @param messagesPerSecond Maximum number of messages written per second, or 0 to write none
+     */
+    public SampledLogger(Class<?> owner, int messagesPerSecond) {
+        this.logger = LogManager.getLogger("sampled." + owner.getName());
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * Checks if the channel is enabled and the next message falls within this second's limit.
+     *
+     * @return true if the caller should write its message
+     */
+    public boolean sample() {
+        if (messagesPerSecond == 0 || !logger.isDebugEnabled()) {
+            return false;
+        }
+        long current = System.nanoTime() / WINDOW_NANOS;
+        long previous = window.get();
+        if (current != previous && window.compareAndSet(previous, current)) {
+            int dropped = sampled.getAndSet(0) - messagesPerSecond;
+            if (dropped > 0) {
+                logger.debug("{} sampled messages dropped", dropped);
+            }
+        }
+        return sampled.incrementAndGet() <= messagesPerSecond;
+    }
+
+    /**
+     * Writes a sampled message.
+     *
+     * @param message Message pattern
+     * @param p0 Parameter
+     */
+    public void debug(String message, Object p0) {
+        logger.debug(message, p0);
+    }
+
+    /**
+     * Writes a sampled message.
+     *
+     * @param message Message pattern
+     * @param p0 First parameter
+     * @param p1 Second parameter
+     */
+    public void debug(String message, Object p0, Object p1) {
+        logger.debug(message, p0, p1);
+    }
+
+    /**
+     * Writes a sampled message.
+     *
+     * @param message Message pattern
+     * @param p0 First parameter
+     * @param p1 Second parameter
+     * @param p2 Third parameter
+     */
+    public void debug(String message, Object p0, Object p1, Object p2) {
+        logger.debug(message, p0, p1, p2);
+    }
+}
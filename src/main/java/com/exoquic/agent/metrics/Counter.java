@@ -0,0 +1,36 @@
+package com.exoquic.agent.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Increments are lock-free and spread over cells under
+ * contention, so counters can be updated on every event.
+ */
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Adds to the count.
+     *
+     * @param amount Amount to add; must not be negative
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Gets the current count.
+     *
+     * @return Count
+     */
+    public long get() {
+        return value.sum();
+    }
+}
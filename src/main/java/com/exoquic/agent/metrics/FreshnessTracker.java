@@ -0,0 +1,150 @@
+package com.exoquic.agent.metrics;
+
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how fresh the data in Exoquic is, per table, from the moment a change was committed in
+ * PostgreSQL to the moment Exoquic acknowledged it.
+ * <p>
+ * The end-to-end latency is split into stages, so it shows where the time goes:
+ * <ul>
+ *   <li>{@code decode}: from the commit to Debezium handing the event to the agent, i.e. WAL
+ *       decoding and Debezium itself</li>
+ *   <li>{@code queue}: from the handover to the produce request being sent, i.e. the pipeline's
+ *       handoff ring, lanes and batching</li>
+ *   <li>{@code http}: from sending the request to Exoquic acknowledging it, including retries of
+ *       the request; events sent again on their own count the earlier attempts as queueing</li>
+ *   <li>{@code end_to_end}: from the commit to the acknowledgement</li>
+ * </ul>
+ * Latencies are recorded in microseconds into HDR histograms, which take a constant time to
+ * record without locking. The exported p50, p99 and p999 cover the latest completed window: the
+ * histograms are rolled over on the first scrape after each window has passed. Stages measured
+ * against the commit time compare clocks of the database server and the agent, so clock skew
+ * shows up in them.
+ */
+public class FreshnessTracker {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.99", "0.999"};
+
+    /**
+     * Stages of an event's way from the commit to Exoquic.
+     */
+    public enum Stage {
+        DECODE("decode"),
+        QUEUE("queue"),
+        HTTP("http"),
+        END_TO_END("end_to_end");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final MetricsRegistry registry;
+    private final long windowNanos;
+    private final Map<String, TableFreshness> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new FreshnessTracker.
+     *
+     * @param registry Registry to export the percentiles to
+     * @param windowMs Length of the window the percentiles cover, in milliseconds
+     */
+    public FreshnessTracker(MetricsRegistry registry, long windowMs) {
+        this.registry = registry;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    /**
+     * Records the stage latencies of an event that Exoquic has acknowledged.
+     *
+     * @param table Table the event belongs to, as its topic name
+     * @param commitTimeMs Commit time of the change in the database, or -1 if unknown
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the event over
+     * @param sendStartNanos {@link System#nanoTime()} when the request carrying the event was sent
+     */
+    public void recordDelivered(String table, long commitTimeMs, long capturedNanos, long sendStartNanos) {
+        long nowNanos = System.nanoTime();
+        TableFreshness freshness = tables.computeIfAbsent(table, this::register);
+        freshness.record(Stage.QUEUE, TimeUnit.NANOSECONDS.toMicros(sendStartNanos - capturedNanos));
+        freshness.record(Stage.HTTP, TimeUnit.NANOSECONDS.toMicros(nowNanos - sendStartNanos));
+        if (commitTimeMs > 0) {
+            long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            long capturedMicros = nowMicros - TimeUnit.NANOSECONDS.toMicros(nowNanos - capturedNanos);
+            long commitMicros = TimeUnit.MILLISECONDS.toMicros(commitTimeMs);
+            freshness.record(Stage.DECODE, capturedMicros - commitMicros);
+            freshness.record(Stage.END_TO_END, nowMicros - commitMicros);
+        }
+    }
+
+    /**
+     * Gets a percentile of a stage's latency over the latest window.
+     *
+     * @param table Table, as its topic name
+     * @param stage Stage
+     * @param quantile Quantile between 0 and 1
+     * @return Latency in seconds, or NaN if nothing was recorded for the table
+     */
+    public double getLatencySeconds(String table, Stage stage, double quantile) {
+        TableFreshness freshness = tables.get(table);
+        return freshness == null ? Double.NaN : freshness.quantileSeconds(stage, quantile);
+    }
+
+    private TableFreshness register(String table) {
+        TableFreshness freshness = new TableFreshness();
+        for (Stage stage : Stage.values()) {
+            for (int i = 0; i < QUANTILES.length; i++) {
+                double quantile = QUANTILES[i];
+                registry.gauge("exoquic_freshness_seconds", "Latency of each stage from commit to acknowledgement",
+                        () -> freshness.quantileSeconds(stage, quantile),
+                        "table", table, "stage", stage.getLabel(), "quantile", QUANTILE_LABELS[i]);
+            }
+        }
+        return freshness;
+    }
+
+    /**
+     * Histograms of one table, one per stage.
+     */
+    private final class TableFreshness {
+        private final Recorder[] recorders = new Recorder[Stage.values().length];
+        private final org.HdrHistogram.Histogram[] windows = new org.HdrHistogram.Histogram[Stage.values().length];
+        private final long[] rolledAt = new long[Stage.values().length];
+
+        private TableFreshness() {
+            for (int i = 0; i < recorders.length; i++) {
+                recorders[i] = new Recorder(3);
+                rolledAt[i] = System.nanoTime();
+            }
+        }
+
+        private void record(Stage stage, long micros) {
+            // Clock skew can make stages measured against the commit time negative
+            recorders[stage.ordinal()].recordValue(Math.max(0, micros));
+        }
+
+        private synchronized double quantileSeconds(Stage stage, double quantile) {
+            int index = stage.ordinal();
+            long now = System.nanoTime();
+            if (windows[index] == null || now - rolledAt[index] >= windowNanos) {
+                windows[index] = recorders[index].getIntervalHistogram(windows[index]);
+                rolledAt[index] = now;
+            }
+            org.HdrHistogram.Histogram window = windows[index];
+            if (window.getTotalCount() == 0) {
+                return Double.NaN;
+            }
+            return window.getValueAtPercentile(quantile * 100) / 1e6;
+        }
+    }
+}
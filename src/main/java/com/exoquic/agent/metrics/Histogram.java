@@ -0,0 +1,80 @@
+package com.exoquic.agent.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distribution of observed values over fixed buckets, as exported by Prometheus histograms.
+ * Observations are lock-free.
+ */
+public class Histogram {
+    /** Buckets for latencies in seconds, from half a millisecond to ten seconds. */
+    public static final double[] LATENCY_SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    /** Buckets for short durations in seconds, from a microsecond to ten milliseconds. */
+    public static final double[] SHORT_SECONDS = {
+            0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.01};
+
+    private final double[] upperBounds;
+    /** Observation count per bucket, not cumulative; the last cell counts values above every bound. */
+    private final LongAdder[] buckets;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Creates a new Histogram.
+     *
+     * @param upperBounds Inclusive upper bounds of the buckets, in ascending order
+     */
+    public Histogram(double[] upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value Observed value
+     */
+    public void observe(double value) {
+        int bucket = 0;
+        while (bucket < upperBounds.length && value > upperBounds[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Records a duration in a histogram of seconds.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void observeNanos(long nanos) {
+        observe((double) nanos / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    double[] getUpperBounds() {
+        return upperBounds;
+    }
+
+    /**
+     * Gets the cumulative count of each bucket, the last one being the total count.
+     */
+    long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    double getSum() {
+        return sum.sum();
+    }
+}
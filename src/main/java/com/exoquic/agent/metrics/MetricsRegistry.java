@@ -0,0 +1,197 @@
+package com.exoquic.agent.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Holds the agent's metrics and writes them in the Prometheus text exposition format.
+ * <p>
+ * Metrics are identified by name and an optional set of labels, given as alternating label
+ * names and values. Asking for a metric that exists returns it, so a component can either keep
+ * a reference to a metric it updates often, or look up a metric with dynamic labels per use.
+ * Gauges are read from a supplier when the metrics are scraped, so components only need to
+ * expose their state through getters.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class MetricsRegistry {
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets or creates a counter.
+     *
+     * @param name Metric name, ending in {@code _total}
+     * @param help Description of the metric
+     * @param labels Alternating label names and values
+     * @return Counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").child(labels, key -> new Counter());
+    }
+
+    /**
+     * Registers a counter whose value is kept by another component, replacing any counter with
+     * the same name and labels.
+     *
+     * @param name Metric name, ending in {@code _total}
+     * @param help Description of the metric
+     * @param value Supplier of the current count, called on every scrape
+     * @param labels Alternating label names and values
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").children.put(labelString(labels), value);
+    }
+
+    /**
+     * Gets or creates a histogram.
+     *
+     * @param name Metric name
+     * @param help Description of the metric
+     * @param upperBounds Upper bounds of the buckets, used when the histogram is created
+     * @param labels Alternating label names and values
+     * @return Histogram
+     */
+    public Histogram histogram(String name, String help, double[] upperBounds, String... labels) {
+        return (Histogram) family(name, help, "histogram").child(labels, key -> new Histogram(upperBounds));
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name and labels.
+     *
+     * @param name Metric name
+     * @param help Description of the metric
+     * @param value Supplier of the current value, called on every scrape
+     * @param labels Alternating label names and values
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").children.put(labelString(labels), value);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+     *
+     * @return Metrics text
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            family.write(out);
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Renders labels as {@code {name="value",..}}, or an empty string without labels.
+     */
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\' -> out.append("\\\\");
+                    case '"' -> out.append("\\\"");
+                    case '\n' -> out.append("\\n");
+                    default -> out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * All metrics with the same name, keyed by their rendered labels.
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        private Object child(String[] labels, Function<String, Object> factory) {
+            return children.computeIfAbsent(labelString(labels), factory);
+        }
+
+        private void write(StringBuilder out) {
+            if (children.isEmpty()) {
+                return;
+            }
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter counter) {
+                    out.append(name).append(labels).append(' ').append(counter.get()).append('\n');
+                } else if (metric instanceof DoubleSupplier gauge) {
+                    out.append(name).append(labels).append(' ');
+                    appendValue(out, gauge.getAsDouble());
+                    out.append('\n');
+                } else if (metric instanceof Histogram histogram) {
+                    writeHistogram(out, labels, histogram);
+                }
+            }
+        }
+
+        private void writeHistogram(StringBuilder out, String labels, Histogram histogram) {
+            double[] bounds = histogram.getUpperBounds();
+            long[] counts = histogram.getCumulativeCounts();
+            // Bucket labels go after the metric's own labels
+            String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+            for (int i = 0; i <= bounds.length; i++) {
+                out.append(name).append("_bucket").append(prefix).append("le=\"");
+                if (i < bounds.length) {
+                    appendValue(out, bounds[i]);
+                } else {
+                    out.append("+Inf");
+                }
+                out.append("\"} ").append(counts[i]).append('\n');
+            }
+            out.append(name).append("_sum").append(labels).append(' ');
+            appendValue(out, histogram.getSum());
+            out.append('\n');
+            out.append(name).append("_count").append(labels).append(' ').append(counts[bounds.length]).append('\n');
+        }
+
+        private static void appendValue(StringBuilder out, double value) {
+            if (Double.isNaN(value)) {
+                out.append("NaN");
+            } else if (Double.isInfinite(value)) {
+                out.append(value > 0 ? "+Inf" : "-Inf");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.exoquic.agent.metrics;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRoutes;
+
+import java.util.function.Consumer;
+
+/**
+ * Small embedded HTTP server that exposes the metrics at {@code GET /metrics} for Prometheus
+ * to scrape. Other parts of the agent can serve further routes on it, such as the admin API.
+ */
+public class MetricsServer {
+    private static final Logger logger = LogManager.getLogger(MetricsServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final String host;
+    private final int port;
+    private final MetricsRegistry registry;
+    private final Consumer<HttpServerRoutes> extraRoutes;
+    private DisposableServer server;
+
+    /**
+     * Creates a new MetricsServer.
+     *
+     * @param host Address to listen on
+     * @param port Port to listen on
+     * @param registry Metrics to expose
+     */
+    public MetricsServer(String host, int port, MetricsRegistry registry) {
+        this(host, port, registry, routes -> { });
+    }
+
+    /**
+     * Creates a new MetricsServer that also serves other routes.
+     *
+     * @param host Address to listen on
+     * @param port Port to listen on
+     * @param registry Metrics to expose
+     * @param extraRoutes Adds the other routes
+     */
+    public MetricsServer(String host, int port, MetricsRegistry registry, Consumer<HttpServerRoutes> extraRoutes) {
+        this.host = host;
+        this.port = port;
+        this.registry = registry;
+        this.extraRoutes = extraRoutes;
+    }
+
+    /**
+     * Starts listening.
+     */
+    public void start() {
+        server = HttpServer.create()
+                .host(host)
+                .port(port)
+                .route(routes -> {
+                    routes.get("/metrics", (request, response) -> response
+                            .header(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE)
+                            .sendString(Mono.fromSupplier(registry::scrape)));
+                    extraRoutes.accept(routes);
+                })
+                .bindNow();
+        logger.info("Metrics available at http://{}:{}/metrics", host, server.port());
+    }
+
+    /**
+     * Gets the port the server listens on, which differs from the configured one if that was 0.
+     *
+     * @return Bound port, or -1 if the server is not started
+     */
+    public int getPort() {
+        return server == null ? -1 : server.port();
+    }
+
+    /**
+     * Stops listening.
+     */
+    public void stop() {
+        if (server != null) {
+            server.disposeNow();
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.exoquic.agent.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the progress of the initial snapshot and of incremental snapshots, per table.
+ * <p>
+ * Every snapshot row the pipeline reads is counted for its table and exported as
+ * {@code exoquic_snapshot_rows_total}. When row estimates from the database statistics are
+ * available, they are exported as {@code exoquic_snapshot_rows_estimated}, and the progress of
+ * every table is logged as a share of its estimate every ten seconds while the snapshot runs.
+ * Estimates come from the last {@code ANALYZE} of each table, so a share can end above or below
+ * 100%.
+ */
+public class SnapshotProgress {
+    private static final Logger logger = LogManager.getLogger(SnapshotProgress.class);
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final MetricsRegistry registry;
+    private final Map<String, TableProgress> tables = new ConcurrentHashMap<>();
+    private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a new SnapshotProgress.
+     *
+     * @param registry Registry to export the progress to
+     */
+    public SnapshotProgress(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Sets the estimated number of rows of tables.
+     *
+     * @param estimates Estimated rows by table, as its topic name
+     */
+    public void setEstimates(Map<String, Long> estimates) {
+        estimates.forEach((table, rows) -> tables.computeIfAbsent(table, this::register).estimated = rows);
+    }
+
+    /**
+     * Counts a snapshot row of a table, and logs the progress of all tables if it is due.
+     *
+     * @param table Table the row belongs to, as its topic name
+     */
+    public void recordRow(String table) {
+        tables.computeIfAbsent(table, this::register).rows.increment();
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (now - last >= REPORT_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+            report();
+        }
+    }
+
+    /**
+     * Gets the number of snapshot rows read for a table.
+     *
+     * @param table Table, as its topic name
+     * @return Rows read
+     */
+    public long getRows(String table) {
+        TableProgress progress = tables.get(table);
+        return progress == null ? 0 : progress.rows.sum();
+    }
+
+    private void report() {
+        StringBuilder report = new StringBuilder("Snapshot progress:");
+        new TreeMap<>(tables).forEach((table, progress) -> {
+            long rows = progress.rows.sum();
+            if (rows == 0) {
+                return;
+            }
+            report.append("\n  ").append(table).append(": ").append(rows).append(" rows");
+            if (progress.estimated > 0) {
+                report.append(" of ~").append(progress.estimated)
+                        .append(" (").append(rows * 100 / progress.estimated).append("%)");
+            }
+        });
+        logger.info(report.toString());
+    }
+
+    private TableProgress register(String table) {
+        TableProgress progress = new TableProgress();
+        registry.counter("exoquic_snapshot_rows_total", "Rows read by snapshots",
+                () -> progress.rows.sum(), "table", table);
+        registry.gauge("exoquic_snapshot_rows_estimated", "Estimated rows of a table, from the database statistics",
+                () -> progress.estimated < 0 ? Double.NaN : progress.estimated, "table", table);
+        return progress;
+    }
+
+    /**
+     * Snapshot progress of one table.
+     */
+    private static final class TableProgress {
+        private final LongAdder rows = new LongAdder();
+        private volatile long estimated = -1;
+    }
+}
@@ -0,0 +1,130 @@
+package com.exoquic.agent.model;
+
+/**
+ * A Debezium change event parsed once into the fields the agent needs for
+ * filtering, topic resolution, key extraction and transformation.
+ * <p>
+ * The row images ({@code before}/{@code after}) are kept in the representation the capture
+ * path produced, so they can be forwarded without an intermediate tree.
+ */
+public class ChangeRecord {
+    private final long sequence;
+    private final long lsn;
+    private final long commitTimeMs;
+    private final long capturedNanos;
+    private final String operation;
+    private final String database;
+    private final String schema;
+    private final String table;
+    private final String ddl;
+    private final RowImage before;
+    private final RowImage after;
+    private final String[] keyNames;
+    private final String[] keyValues;
+
+    /**
+     * Creates a new ChangeRecord.
+     *
+     * @param sequence Capture sequence number of the event, used to acknowledge it
+     * @param lsn Log sequence number from the event source block, or -1 if absent
+     * @param commitTimeMs Commit time from the event source block in epoch milliseconds, or -1 if absent
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the event over
+     * @param operation Debezium operation code (c, u, d, r), or null if absent
+     * @param database Source database name
+     * @param schema Source schema name
+     * @param table Source table name
+     * @param ddl DDL statement if this is a schema change event, null otherwise
+     * @param before Row state before the change, or null if absent
+     * @param after Row state after the change, or null if absent
+     * @param keyNames Primary key field names in event order, or null if the event has no key
+     * @param keyValues Primary key field values, parallel to {@code keyNames}
+     */
+    public ChangeRecord(long sequence, long lsn, long commitTimeMs, long capturedNanos, String operation, String database,
+                        String schema, String table, String ddl, RowImage before, RowImage after,
+                        String[] keyNames, String[] keyValues) {
+        this.sequence = sequence;
+        this.lsn = lsn;
+        this.commitTimeMs = commitTimeMs;
+        this.capturedNanos = capturedNanos;
+        this.operation = operation;
+        this.database = database;
+        this.schema = schema;
+        this.table = table;
+        this.ddl = ddl;
+        this.before = before;
+        this.after = after;
+        this.keyNames = keyNames;
+        this.keyValues = keyValues;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public long getCommitTimeMs() {
+        return commitTimeMs;
+    }
+
+    public long getCapturedNanos() {
+        return capturedNanos;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getDdl() {
+        return ddl;
+    }
+
+    public RowImage getBefore() {
+        return before;
+    }
+
+    public RowImage getAfter() {
+        return after;
+    }
+
+    public String[] getKeyNames() {
+        return keyNames;
+    }
+
+    public String[] getKeyValues() {
+        return keyValues;
+    }
+
+    /**
+     * Checks if this record is a schema change (DDL) event.
+     *
+     * @return true if the event carries a DDL statement
+     */
+    public boolean isSchemaChange() {
+        return ddl != null;
+    }
+
+    /**
+     * Checks if the event payload carried none of the fields of a row change.
+     *
+     * @return true if the payload was empty
+     */
+    public boolean isEmpty() {
+        return operation == null && database == null && schema == null && table == null
+                && before == null && after == null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.exoquic.agent.model;
+
+/**
+ * A change event ready to be produced to Exoquic: the target topic, the record key and the
+ * value in the Exoquic database log format.
+ */
+public class ExoquicEvent {
+    private final long sequence;
+    private final long lsn;
+    private final String topic;
+    private final String key;
+    private final ChangeEventType type;
+    private final RowImage data;
+    private final long commitTimeMs;
+    private final long capturedNanos;
+
+    /**
+     * Creates a new ExoquicEvent.
+     *
+     * @param sequence Capture sequence number of the source event, used to acknowledge it
+     * @param lsn Log sequence number of the source event, or -1 if unknown
+     * @param topic Topic name in the format [database name].[schema].[table]
+     * @param key Record key, also used as the channel
+     * @param type Change event type
+     * @param data Row data
+     * @param commitTimeMs Commit time of the source event in epoch milliseconds, or -1 if unknown
+     * @param capturedNanos {@link System#nanoTime()} when Debezium handed the source event over
+     */
+    public ExoquicEvent(long sequence, long lsn, String topic, String key, ChangeEventType type, RowImage data,
+                        long commitTimeMs, long capturedNanos) {
+        this.sequence = sequence;
+        this.lsn = lsn;
+        this.topic = topic;
+        this.key = key;
+        this.type = type;
+        this.data = data;
+        this.commitTimeMs = commitTimeMs;
+        this.capturedNanos = capturedNanos;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public ChangeEventType getType() {
+        return type;
+    }
+
+    public RowImage getData() {
+        return data;
+    }
+
+    public long getCommitTimeMs() {
+        return commitTimeMs;
+    }
+
+    public long getCapturedNanos() {
+        return capturedNanos;
+    }
+
+    /**
+     * Estimates the number of bytes this event adds to a produce request body.
+     *
+     * @return Estimated encoded size in bytes
+     */
+    public int estimatedSize() {
+        // Key and channel header (Base64, at most 4/3 of the UTF-8 key) plus the fixed record structure
+        return data.estimatedSize() + key.length() * 7 + 96;
+    }
+}
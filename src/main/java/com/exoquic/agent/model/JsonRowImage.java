@@ -0,0 +1,47 @@
+package com.exoquic.agent.model;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A row image that is already JSON, held as a byte range into the event it was read from.
+ * Writing it copies the bytes through without re-encoding.
+ */
+public class JsonRowImage implements RowImage {
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Creates a new JsonRowImage.
+     *
+     * @param buffer Buffer holding the row image as UTF-8 JSON
+     * @param offset Offset of the JSON object within the buffer
+     * @param length Length of the JSON object
+     */
+    public JsonRowImage(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = offset + 1; i < offset + length - 1; i++) {
+            byte b = buffer[i];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int estimatedSize() {
+        return length;
+    }
+
+    @Override
+    public void writeJson(ByteBuf out) {
+        out.writeBytes(buffer, offset, length);
+    }
+}
@@ -0,0 +1,41 @@
+package com.exoquic.agent.model;
+
+import java.util.List;
+
+/**
+ * A group of events for the same topic that are sent to Exoquic in a single produce request.
+ */
+public class ProduceBatch {
+    private final String topic;
+    private final List<ExoquicEvent> events;
+    private final int estimatedSize;
+
+    /**
+     * Creates a new ProduceBatch.
+     *
+     * @param topic Topic all events are produced to
+     * @param events Events in the order they were captured
+     * @param estimatedSize Estimated size of the encoded request body in bytes
+     */
+    public ProduceBatch(String topic, List<ExoquicEvent> events, int estimatedSize) {
+        this.topic = topic;
+        this.events = events;
+        this.estimatedSize = estimatedSize;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public List<ExoquicEvent> getEvents() {
+        return events;
+    }
+
+    public int getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    public int size() {
+        return events.size();
+    }
+}
@@ -0,0 +1,31 @@
+package com.exoquic.agent.model;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The state of a row before or after a change, in whatever representation the capture
+ * path produced it. Row images are written to the wire as JSON objects.
+ */
+public interface RowImage {
+
+    /**
+     * Checks if the row image has no columns.
+     *
+     * @return true if the row image is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Estimates the number of bytes {@link #writeJson(ByteBuf)} will write, for sizing buffers.
+     *
+     * @return Estimated encoded size in bytes
+     */
+    int estimatedSize();
+
+    /**
+     * Writes the row image as a JSON object.
+     *
+     * @param out Buffer to write to
+     */
+    void writeJson(ByteBuf out);
+}
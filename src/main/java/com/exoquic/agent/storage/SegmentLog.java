@@ -0,0 +1,359 @@
+package com.exoquic.agent.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of binary records stored in fixed-size, memory-mapped segment files.
+ * <p>
+ * Each record is written as {@code [int length][int crc32][payload]}. Segment files are zero-filled
+ * when created, so a zero length marks the end of the written part. Consumed records are marked by
+ * negating their length in place, and a segment file is deleted once every record in it has been
+ * consumed and writing has moved on to a newer segment. Reopening a directory recovers the records
+ * that were not consumed; a record with a bad checksum ends its segment, as left by an interrupted write.
+ * Segments are unmapped as soon as they are deleted or the log is closed, so their disk space and
+ * address space are released right away rather than when the mapping is garbage collected.
+ * <p>
+ * Records are consumed in the order they were appended. Instances are thread-safe.
+ */
+public class SegmentLog implements Closeable {
+    private static final Logger logger = LogManager.getLogger(SegmentLog.class);
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private long nextSegmentId;
+    // Written under the lock, read without it so that checking the log never waits for an append
+    private volatile long pendingRecords;
+    private volatile long pendingBytes;
+
+    /**
+     * Opens a segment log, recovering any records left in the directory.
+     *
+     * @param directory Directory holding the segment files; created if missing
+     * @param segmentBytes Size of each segment file in bytes
+     * @param maxBytes Maximum total size of all segment files in bytes
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public SegmentLog(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment size must be larger than " + HEADER_BYTES + " bytes");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes));
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends a record made of the readable bytes of the given buffers, without consuming them.
+     * The record is forced to storage before this method returns.
+     *
+     * @param parts Buffers whose readable bytes form the record, in order
+     * @return true if the record was appended, false if the log is full or the record is larger than a segment
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized boolean append(ByteBuf... parts) throws IOException {
+        int length = 0;
+        for (ByteBuf part : parts) {
+            length += part.readableBytes();
+        }
+        if (length == 0 || HEADER_BYTES + length > segmentBytes) {
+            logger.warn("Cannot append record of {} bytes to segments of {} bytes", length, segmentBytes);
+            return false;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + HEADER_BYTES + length > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            tail = createSegment();
+        }
+
+        crc.reset();
+        int position = tail.writePosition;
+        int payloadPosition = position + HEADER_BYTES;
+        for (ByteBuf part : parts) {
+            int partLength = part.readableBytes();
+            part.getBytes(part.readerIndex(), tail.buffer.slice(payloadPosition, partLength));
+            crc.update(tail.buffer.slice(payloadPosition, partLength));
+            payloadPosition += partLength;
+        }
+        tail.buffer.putInt(position + 4, (int) crc.getValue());
+        // The length goes in last, so a reader never sees a record before its payload is complete
+        tail.buffer.putInt(position, length);
+        tail.buffer.force(position, HEADER_BYTES + length);
+
+        tail.writePosition = payloadPosition;
+        pendingRecords++;
+        pendingBytes += length;
+        return true;
+    }
+
+    /**
+     * Reads the oldest record that has not been consumed.
+     *
+     * @return Copy of the record payload, or null if the log is empty
+     */
+    public synchronized ByteBuf peek() {
+        Segment head = advanceToRecord();
+        if (head == null) {
+            return null;
+        }
+        int length = head.buffer.getInt(head.readPosition);
+        ByteBuf record = Unpooled.buffer(length);
+        record.writeBytes(head.buffer.slice(head.readPosition + HEADER_BYTES, length));
+        return record;
+    }
+
+    /**
+     * Reads records that have not been consumed, without consuming them, so that records can be
+     * read ahead of the oldest one while it is still being handled. At least one record is returned
+     * if there is any after the skipped ones, even if it is larger than the byte limit.
+     *
+     * @param skip Number of unconsumed records to skip, oldest first
+     * @param maxRecords Maximum number of records to read
+     * @param maxBytes Maximum total payload size of the records to read
+     * @return Copies of the record payloads, oldest first
+     */
+    public synchronized List<ByteBuf> peek(long skip, int maxRecords, long maxBytes) {
+        List<ByteBuf> records = new ArrayList<>();
+        long bytes = 0;
+        if (advanceToRecord() == null) {
+            return records;
+        }
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            while (position + HEADER_BYTES <= segment.writePosition) {
+                int length = segment.buffer.getInt(position);
+                if (length > 0 && skip > 0) {
+                    skip--;
+                } else if (length > 0) {
+                    if (records.size() >= maxRecords || (!records.isEmpty() && bytes + length > maxBytes)) {
+                        return records;
+                    }
+                    ByteBuf record = Unpooled.buffer(length);
+                    record.writeBytes(segment.buffer.slice(position + HEADER_BYTES, length));
+                    records.add(record);
+                    bytes += length;
+                }
+                position += HEADER_BYTES + Math.abs(length);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Marks the oldest record as consumed and deletes segments that no longer hold any records.
+     */
+    public synchronized void remove() {
+        Segment head = advanceToRecord();
+        if (head == null) {
+            return;
+        }
+        int length = head.buffer.getInt(head.readPosition);
+        head.buffer.putInt(head.readPosition, -length);
+        head.readPosition += HEADER_BYTES + length;
+        pendingRecords--;
+        pendingBytes -= length;
+        advanceToRecord();
+    }
+
+    /**
+     * Checks if every record has been consumed.
+     *
+     * @return true if there is nothing to read
+     */
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    /**
+     * Gets the number of records that have not been consumed.
+     *
+     * @return Pending record count
+     */
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Gets the total payload size of the records that have not been consumed.
+     *
+     * @return Pending payload bytes
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Gets the number of segment files in use.
+     *
+     * @return Segment count
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            unmap(segment);
+        }
+        segments.clear();
+    }
+
+    /**
+     * Moves the read position to the next unconsumed record, deleting segments left behind.
+     *
+     * @return Segment positioned at a record, or null if there is none
+     */
+    private Segment advanceToRecord() {
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            while (head.readPosition + HEADER_BYTES <= head.writePosition) {
+                int length = head.buffer.getInt(head.readPosition);
+                if (length > 0) {
+                    return head;
+                }
+                head.readPosition += HEADER_BYTES - length;
+            }
+            if (head == segments.peekLast()) {
+                return null;
+            }
+            segments.pollFirst();
+            delete(head);
+        }
+        return null;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().forEach(files::add);
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring {}, which is not a segment file", file);
+                continue;
+            }
+            Segment segment = new Segment(file, map(file));
+            scan(segment);
+            segments.addLast(segment);
+            nextSegmentId = id + 1;
+        }
+        advanceToRecord();
+
+        if (pendingRecords > 0) {
+            logger.info("Recovered {} records ({} bytes) from {} segments in {}",
+                    pendingRecords, pendingBytes, segments.size(), directory);
+        }
+    }
+
+    /**
+     * Finds the end of the written part of a segment and counts the records not yet consumed.
+     */
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            int size = Math.abs(length);
+            if (length == 0 || length == Integer.MIN_VALUE || position + HEADER_BYTES + size > segmentBytes) {
+                break;
+            }
+            if (length > 0) {
+                crc.reset();
+                crc.update(buffer.slice(position + HEADER_BYTES, size));
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    logger.warn("Discarding torn record at offset {} of {}", position, segment.file);
+                    break;
+                }
+                pendingRecords++;
+                pendingBytes += size;
+            }
+            position += HEADER_BYTES + size;
+        }
+        segment.writePosition = position;
+    }
+
+    private Segment createSegment() throws IOException {
+        long id = nextSegmentId++;
+        Path file = directory.resolve(String.format("%020d%s", id, SUFFIX));
+        Segment segment = new Segment(file, map(file));
+        segments.addLast(segment);
+        logger.debug("Created segment {}", file);
+        return segment;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private void delete(Segment segment) {
+        unmap(segment);
+        try {
+            Files.deleteIfExists(segment.file);
+            logger.debug("Deleted consumed segment {}", segment.file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete consumed segment {}: {}", segment.file, e.getMessage());
+        }
+    }
+
+    private static void unmap(Segment segment) {
+        try {
+            PlatformDependent.freeDirectBuffer(segment.buffer);
+        } catch (Throwable e) {
+            logger.debug("Could not unmap segment {}, leaving it to the garbage collector: {}", segment.file, e.getMessage());
+        }
+    }
+
+    /**
+     * A mapped segment file with its read and write positions.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}